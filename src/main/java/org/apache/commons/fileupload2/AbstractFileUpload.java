@@ -27,9 +27,18 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.apache.commons.fileupload2.impl.FileItemIteratorImpl;
+import org.apache.commons.fileupload2.impl.FileItemStreamImpl;
+import org.apache.commons.fileupload2.impl.PipelinedWriter;
 import org.apache.commons.fileupload2.pub.FileUploadFileCountLimitException;
+import org.apache.commons.fileupload2.pub.FileUploadSizeException;
+import org.apache.commons.fileupload2.util.BufferPool;
 import org.apache.commons.fileupload2.util.FileItemHeadersImpl;
 import org.apache.commons.io.IOUtils;
 
@@ -91,6 +100,35 @@ public abstract class AbstractFileUpload {
      */
     public static final String MULTIPART_MIXED = "multipart/mixed";
 
+    /**
+     * The default maximum number of chunks, which are pending for the
+     * write executor.
+     */
+    public static final int DEFAULT_WRITE_QUEUE_CAPACITY = 4;
+
+    /**
+     * The minimum size of the {@link MultipartStream} buffer, which holds
+     * the longest boundary permitted by RFC 2046 (70 characters), and its
+     * prefix.
+     */
+    public static final int MIN_BUFFER_SIZE = 128;
+
+    /**
+     * Whether a class overrides {@link #getParsedHeaders(String)}, in
+     * which case {@link #getParsedHeaders(MultipartStream)} delegates to
+     * that method.
+     */
+    private static final ClassValue<Boolean> PARSED_HEADERS_OVERRIDDEN = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(final Class<?> type) {
+            try {
+                return type.getMethod("getParsedHeaders", String.class).getDeclaringClass() != AbstractFileUpload.class;
+            } catch (final NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
     /**
      * Utility method that determines whether the request contains multipart
      * content.
@@ -140,6 +178,56 @@ public abstract class AbstractFileUpload {
      */
     private ProgressListener listener;
 
+    /**
+     * The algorithm used for locating the boundary, or null for the default.
+     */
+    private BoundarySearch boundarySearch;
+
+    /**
+     * The size of the {@link MultipartStream} buffer, or its minimum
+     * size, if adaptive sizing is enabled.
+     */
+    private int bufferSize = MultipartStream.DEFAULT_BUFSIZE;
+
+    /**
+     * The maximum size of the {@link MultipartStream} buffer for adaptive
+     * sizing. A value of -1 disables adaptive sizing.
+     */
+    private int bufferSizeMax = -1;
+
+    /**
+     * The pool, from which I/O buffers are borrowed, or null, if buffers
+     * are allocated per request.
+     */
+    private BufferPool bufferPool;
+
+    /**
+     * The executor, which persists item contents in pipelined mode,
+     * or null, if contents are persisted by the parsing thread.
+     */
+    private Executor writeExecutor;
+
+    /**
+     * The maximum number of chunks, which are pending for the
+     * {@link #writeExecutor}.
+     */
+    private int writeQueueCapacity = DEFAULT_WRITE_QUEUE_CAPACITY;
+
+    /**
+     * Deletes the given items, ignoring failures.
+     *
+     * @param items The items to delete.
+     */
+    private void deleteAll(final List<FileItem> items) {
+        for (final FileItem fileItem : items) {
+            try {
+                fileItem.delete();
+            } catch (final Exception ignored) {
+                // ignored TODO perhaps add to tracker delete failure list somehow?
+            }
+        }
+    }
+
     /**
      * Gets the boundary from the {@code Content-type} header.
      *
@@ -162,6 +250,76 @@ public abstract class AbstractFileUpload {
         return boundary;
     }
 
+    /**
+     * Gets the algorithm, which is used for locating the boundary
+     * between the parts of a request.
+     *
+     * @return The boundary search algorithm, or null, if the
+     *   {@link BoundarySearch#getDefault() default} is used.
+     * @see #setBoundarySearch(BoundarySearch)
+     */
+    public BoundarySearch getBoundarySearch() {
+        return boundarySearch;
+    }
+
+    /**
+     * Gets the size of the buffer, which is used by the
+     * {@link MultipartStream}.
+     *
+     * @return The buffer size, or the minimum buffer size, if adaptive
+     *   sizing is enabled.
+     * @see #setBufferSize(int)
+     * @see #getBufferSizeMax()
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Gets the size of the buffer, which is used by the
+     * {@link MultipartStream} for a request of the given length.
+     *
+     * @param contentLength The length of the request, or -1, if it is
+     *   unknown.
+     * @return The {@link #getBufferSize() buffer size}, if adaptive
+     *   sizing is disabled, or the length is unknown. Otherwise the
+     *   next power of two, which isn't below the request length,
+     *   limited to the range from {@link #getBufferSize()} to
+     *   {@link #getBufferSizeMax()}.
+     */
+    public int getBufferSize(final long contentLength) {
+        if (bufferSizeMax <= bufferSize || contentLength <= bufferSize) {
+            return bufferSize;
+        }
+        if (contentLength >= bufferSizeMax) {
+            return bufferSizeMax;
+        }
+        return (int) Math.min(bufferSizeMax, Long.highestOneBit(contentLength - 1) << 1);
+    }
+
+    /**
+     * Gets the maximum size of the buffer, which is used by the
+     * {@link MultipartStream}, if adaptive sizing is enabled.
+     *
+     * @return The maximum buffer size, or -1, if adaptive sizing is
+     *   disabled.
+     * @see #setBufferSizeMax(int)
+     */
+    public int getBufferSizeMax() {
+        return bufferSizeMax;
+    }
+
+    /**
+     * Gets the pool, from which the buffers for parsing requests
+     * are borrowed.
+     *
+     * @return The buffer pool, or null, if buffers are allocated per request.
+     * @see #setBufferPool(BufferPool)
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     /**
      * Gets the field name from the {@code Content-disposition}
      * header.
@@ -295,6 +453,32 @@ public abstract class AbstractFileUpload {
         return new FileItemIteratorImpl(this, ctx);
     }
 
+    /**
+     * Reads the {@code header-part} of the current {@code encapsulation}
+     * from the given stream, and returns the parsed headers.
+     * <p>
+     * The result is the same as that of {@code getParsedHeaders(multipartStream.readHeaders())},
+     * but the headers are tokenized directly in the streams buffer. If a
+     * subclass overrides {@link #getParsedHeaders(String)}, then the
+     * {@code header-part} is read as a string, and passed to that method,
+     * so that the override keeps taking effect.
+     * </p>
+     * @param multipartStream The stream, which is positioned at the
+     *                        {@code header-part} of an {@code encapsulation}.
+     * @return The parsed headers.
+     * @throws FileUploadSizeException if the {@code header-part} exceeds
+     *   the size limit.
+     * @throws MultipartStream.MalformedStreamException if the stream ends
+     *   unexpectedly.
+     * @since 2.0
+     */
+    public FileItemHeaders getParsedHeaders(final MultipartStream multipartStream) throws FileUploadSizeException, MultipartStream.MalformedStreamException {
+        if (PARSED_HEADERS_OVERRIDDEN.get(getClass())) {
+            return getParsedHeaders(multipartStream.readHeaders());
+        }
+        return multipartStream.readHeaders(newFileItemHeaders());
+    }
+
     /**
      * Parses the {@code header-part} and returns as key/value
      * pairs.
@@ -361,6 +545,28 @@ public abstract class AbstractFileUpload {
         return sizeMax;
     }
 
+    /**
+     * Gets the executor, which persists item contents in pipelined mode.
+     *
+     * @return The write executor, or null, if contents are persisted by
+     *   the parsing thread.
+     * @see #setWriteExecutor(Executor)
+     */
+    public Executor getWriteExecutor() {
+        return writeExecutor;
+    }
+
+    /**
+     * Gets the maximum number of chunks, which are pending for the
+     * write executor.
+     *
+     * @return The write queue capacity.
+     * @see #setWriteQueueCapacity(int)
+     */
+    public int getWriteQueueCapacity() {
+        return writeQueueCapacity;
+    }
+
     /**
      * Creates a new instance of {@link FileItemHeaders}.
      * @return The new instance.
@@ -448,12 +654,87 @@ public abstract class AbstractFileUpload {
      */
     public List<FileItem> parseRequest(final RequestContext ctx)
             throws FileUploadException {
+        return parseItems(ctx, null, null);
+    }
+
+    /**
+     * Parses an <a href="http://www.ietf.org/rfc/rfc1867.txt">RFC 1867</a>
+     * compliant {@code multipart/form-data} stream, and post-processes
+     * every item on the given executor, as soon as it has been fully
+     * written. Parsing of later items continues meanwhile.
+     * <p>
+     * If parsing fails, then this method waits for the processing of
+     * the items, which have been written so far, deletes all items, and
+     * throws. If processing of an item fails, then the returned future
+     * fails with the processors exception, and all items are deleted,
+     * once processing of the other items has finished.
+     * </p>
+     *
+     * @param <T> The type of the processing results.
+     * @param ctx The context for the request to be parsed.
+     * @param executor The executor, which runs the processor.
+     * @param processor The processor, which is invoked for every item.
+     * @return A future, which completes with the processing results, in
+     *         the order, that the items were transmitted.
+     * @throws FileUploadException if there are problems reading/parsing
+     *                             the request or storing files.
+     * @since 2.0
+     */
+    public <T> CompletableFuture<List<T>> parseRequest(final RequestContext ctx, final Executor executor, final FileItemProcessor<T> processor)
+            throws FileUploadException {
+        Objects.requireNonNull(executor, "executor");
+        Objects.requireNonNull(processor, "processor");
+        // Futures are added by the thread, which completes the items. In pipelined mode, that's the
+        // writer, which is done, when parseItems returns, or invokes the cleanup hook.
+        final List<CompletableFuture<T>> futures = new ArrayList<>();
+        final List<FileItem> items = parseItems(ctx, fileItem -> {
+            final CompletableFuture<T> future = new CompletableFuture<>();
+            futures.add(future);
+            try {
+                executor.execute(() -> {
+                    try {
+                        future.complete(processor.process(fileItem));
+                    } catch (final Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (final RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
+        }, () -> CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).exceptionally(t -> null).join());
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((v, t) -> {
+            if (t != null) {
+                deleteAll(items);
+            }
+        }).thenApply(v -> futures.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    /**
+     * Parses an <a href="http://www.ietf.org/rfc/rfc1867.txt">RFC 1867</a>
+     * compliant {@code multipart/form-data} stream.
+     *
+     * @param ctx The context for the request to be parsed.
+     * @param completedItems Receives every item, once it has been fully
+     *   written, or null.
+     * @param cleanup Runs after parsing has failed, before the items are
+     *   deleted, or null.
+     * @return A list of {@code FileItem} instances parsed from the
+     *         request, in the order that they were transmitted.
+     * @throws FileUploadException if there are problems reading/parsing
+     *                             the request or storing files.
+     */
+    private List<FileItem> parseItems(final RequestContext ctx, final Consumer<FileItem> completedItems, final Runnable cleanup)
+            throws FileUploadException {
         final List<FileItem> items = new ArrayList<>();
         boolean successful = false;
+        final BufferPool pool = bufferPool;
+        final PipelinedWriter writer = writeExecutor == null ? null
+                : new PipelinedWriter(writeExecutor, writeQueueCapacity, PipelinedWriter.DEFAULT_CHUNK_SIZE, pool);
+        FileItemIterator iter = null;
+        byte[] buffer = null;
         try {
-            final FileItemIterator iter = getItemIterator(ctx);
+            iter = getItemIterator(ctx);
             final FileItemFactory fileItemFactory = Objects.requireNonNull(getFileItemFactory(), "No FileItemFactory has been set.");
-            final byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE];
             while (iter.hasNext()) {
                 if (items.size() == fileCountMax) {
                     // The next item will exceed the limit.
@@ -464,15 +745,46 @@ public abstract class AbstractFileUpload {
                 final String fileName = item.getName();
                 final FileItem fileItem = fileItemFactory.createItem(item.getFieldName(), item.getContentType(), item.isFormField(), fileName);
                 items.add(fileItem);
+                // Headers are set first, because the item may be completed by the writer, or resolve its storage from them.
+                fileItem.setHeaders(item.getHeaders());
+                if (writer != null) {
+                    try (InputStream inputStream = item.openStream()) {
+                        // The writer closes the output stream.
+                        writer.transfer(inputStream, fileItem.getOutputStream(),
+                                completedItems == null ? null : () -> completedItems.accept(fileItem));
+                    } catch (final FileUploadException e) {
+                        throw e;
+                    } catch (final IOException e) {
+                        throw new FileUploadException(String.format("Processing of %s request failed. %s", MULTIPART_FORM_DATA, e.getMessage()), e);
+                    }
+                    continue;
+                }
                 try (InputStream inputStream = item.openStream();
                         OutputStream outputStream = fileItem.getOutputStream()) {
-                    IOUtils.copyLarge(inputStream, outputStream, buffer);
+                    if (item instanceof FileItemStreamImpl) {
+                        // Write straight from the MultipartStream buffer.
+                        ((FileItemStreamImpl) item).transferTo(outputStream);
+                    } else {
+                        if (buffer == null) {
+                            buffer = pool == null ? new byte[IOUtils.DEFAULT_BUFFER_SIZE] : pool.acquire(IOUtils.DEFAULT_BUFFER_SIZE);
+                        }
+                        IOUtils.copyLarge(inputStream, outputStream, buffer);
+                    }
                 } catch (final FileUploadException e) {
                     throw e;
                 } catch (final IOException e) {
                     throw new FileUploadException(String.format("Processing of %s request failed. %s", MULTIPART_FORM_DATA, e.getMessage()), e);
                 }
-                fileItem.setHeaders(item.getHeaders());
+                if (completedItems != null) {
+                    completedItems.accept(fileItem);
+                }
+            }
+            if (writer != null) {
+                try {
+                    writer.finish();
+                } catch (final IOException e) {
+                    throw new FileUploadException(String.format("Processing of %s request failed. %s", MULTIPART_FORM_DATA, e.getMessage()), e);
+                }
             }
             successful = true;
             return items;
@@ -481,18 +793,96 @@ public abstract class AbstractFileUpload {
         } catch (final IOException e) {
             throw new FileUploadException(e.getMessage(), e);
         } finally {
+            if (writer != null) {
+                // The items must not be deleted, while they are being written.
+                writer.await();
+            }
+            if (iter instanceof FileItemIteratorImpl) {
+                ((FileItemIteratorImpl) iter).releaseBuffer();
+            }
+            if (pool != null) {
+                pool.release(buffer);
+            }
             if (!successful) {
-                for (final FileItem fileItem : items) {
-                    try {
-                        fileItem.delete();
-                    } catch (final Exception ignored) {
-                        // ignored TODO perhaps add to tracker delete failure list somehow?
-                    }
+                if (cleanup != null) {
+                    cleanup.run();
                 }
+                deleteAll(items);
             }
         }
     }
 
+    /**
+     * Sets the algorithm, which is used for locating the boundary
+     * between the parts of a request. All algorithms produce the
+     * same results, they differ only in speed.
+     *
+     * @param boundarySearch The boundary search algorithm, or null
+     *   (default) to use {@link BoundarySearch#getDefault()}.
+     * @see #getBoundarySearch()
+     */
+    public void setBoundarySearch(final BoundarySearch boundarySearch) {
+        this.boundarySearch = boundarySearch;
+    }
+
+    /**
+     * Sets the size of the buffer, which is used by the
+     * {@link MultipartStream}. Bigger buffers reduce the number of
+     * reads, and buffer shifts for large uploads, at the expense of
+     * memory per request. If adaptive sizing is enabled, then this is
+     * the minimum buffer size, which is also used for requests of
+     * unknown length.
+     *
+     * @param bufferSize The buffer size. Defaults to
+     *   {@link MultipartStream#DEFAULT_BUFSIZE}.
+     * @throws IllegalArgumentException The buffer size is below
+     *   {@link #MIN_BUFFER_SIZE}.
+     * @see #setBufferSizeMax(int)
+     */
+    public void setBufferSize(final int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Enables adaptive sizing of the {@link MultipartStream} buffer by
+     * setting its maximum size. The buffer for a request is then sized
+     * to the next power of two of the requests content length, but
+     * not below {@link #getBufferSize()}, and not above the given
+     * maximum. This gives large uploads large buffers, while small
+     * forms stay small.
+     *
+     * @param bufferSizeMax The maximum buffer size, or -1 (default) to
+     *   disable adaptive sizing.
+     * @throws IllegalArgumentException The maximum buffer size is
+     *   neither -1, nor at least {@link #MIN_BUFFER_SIZE}.
+     * @see #getBufferSize(long)
+     */
+    public void setBufferSizeMax(final int bufferSizeMax) {
+        if (bufferSizeMax != -1 && bufferSizeMax < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid maximum buffer size: " + bufferSizeMax);
+        }
+        this.bufferSizeMax = bufferSizeMax;
+    }
+
+    /**
+     * Sets the pool, from which the buffers for parsing requests
+     * are borrowed. The {@link MultipartStream} buffer is returned to
+     * the pool, when the iterator reaches the end of the request, and
+     * the copy buffer of {@link #parseRequest(RequestContext)} is
+     * returned, when parsing is complete, or has failed. A pool may be
+     * shared by any number of instances.
+     *
+     * @param bufferPool The buffer pool, or null (default) to allocate
+     *   buffers per request.
+     * @see #getBufferPool()
+     */
+    public void setBufferPool(final BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
     /**
      * Sets the maximum number of files allowed per request.
      *
@@ -553,4 +943,36 @@ public abstract class AbstractFileUpload {
         this.sizeMax = sizeMax;
     }
 
+    /**
+     * Enables the pipelined mode of {@link #parseRequest(RequestContext)}.
+     * The parsing thread then hands item contents in chunks over to the
+     * given executor, which persists them, so that reading the request,
+     * and writing to disk overlap. The number of pending chunks is
+     * limited by {@link #getWriteQueueCapacity()}; if the executor falls
+     * behind, then the parsing thread waits. If parsing, or writing
+     * fails, then all items are deleted, as in the default mode, after
+     * the executor has finished with them.
+     *
+     * @param writeExecutor The write executor, or null (default) to
+     *   persist contents on the parsing thread.
+     * @see #getWriteExecutor()
+     */
+    public void setWriteExecutor(final Executor writeExecutor) {
+        this.writeExecutor = writeExecutor;
+    }
+
+    /**
+     * Sets the maximum number of chunks, which are pending for the
+     * write executor. Together with the chunk size of
+     * {@value PipelinedWriter#DEFAULT_CHUNK_SIZE} bytes, this limits
+     * the memory, which a request uses in pipelined mode.
+     *
+     * @param writeQueueCapacity The write queue capacity. Defaults to
+     *   {@link #DEFAULT_WRITE_QUEUE_CAPACITY}.
+     * @see #setWriteExecutor(Executor)
+     */
+    public void setWriteQueueCapacity(final int writeQueueCapacity) {
+        this.writeQueueCapacity = writeQueueCapacity;
+    }
+
 }
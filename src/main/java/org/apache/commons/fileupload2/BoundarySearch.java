@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The algorithms, which a {@link MultipartStream} may use for locating the boundary within its buffer.
+ * <p>
+ * All algorithms report the same position, namely the first complete occurrence of the boundary. They differ only in speed.
+ * </p>
+ *
+ * @see MultipartStream#setBoundarySearch(BoundarySearch)
+ */
+public enum BoundarySearch {
+
+    /**
+     * The Knuth-Morris-Pratt algorithm, which inspects every byte of the buffer exactly once.
+     */
+    KNUTH_MORRIS_PRATT {
+        @Override
+        Finder newFinder() {
+            return new KnuthMorrisPrattFinder();
+        }
+    },
+
+    /**
+     * Scans the buffer a {@code long} at a time for the first byte of the boundary, and verifies the complete boundary only at the candidate positions. This
+     * is the fastest choice for large file parts on Java 9, or later, where the {@code long} reads are compiled into a single machine instruction.
+     */
+    WORD_SCAN {
+        @Override
+        Finder newFinder() {
+            return new WordScanFinder();
+        }
+    },
+
+    /**
+     * The Boyer-Moore-Horspool algorithm, which compares the boundary from its end and skips ahead by up to the boundary length after a mismatch. Typical
+     * boundaries are 30 to 70 bytes long, so most of the buffer is never inspected at all.
+     */
+    BOYER_MOORE_HORSPOOL {
+        @Override
+        Finder newFinder() {
+            return new HorspoolFinder();
+        }
+    };
+
+    /**
+     * Locates a boundary within a buffer. Instances are stateful and must not be shared between streams.
+     */
+    abstract static class Finder {
+
+        /**
+         * Prepares this finder for the given boundary. Called again, whenever the boundary changes.
+         *
+         * @param boundary The boundary, including the leading {@code CRLF--}, if any.
+         * @param length   The number of bytes in {@code boundary}, which are actually used.
+         */
+        abstract void compile(byte[] boundary, int length);
+
+        /**
+         * Searches for the boundary.
+         *
+         * @param buffer The buffer to search.
+         * @param from   The index of the first byte to search.
+         * @param to     The index of the last byte to search, plus one.
+         * @return The index of the first complete occurrence of the boundary, or -1, if there is none.
+         */
+        abstract int find(byte[] buffer, int from, int to);
+
+    }
+
+    /**
+     * The Knuth-Morris-Pratt implementation.
+     */
+    private static final class KnuthMorrisPrattFinder extends Finder {
+
+        /**
+         * The boundary.
+         */
+        private byte[] boundary;
+
+        /**
+         * The number of bytes used in {@link #boundary}.
+         */
+        private int length;
+
+        /**
+         * The table for Knuth-Morris-Pratt search algorithm.
+         */
+        private int[] table;
+
+        @Override
+        void compile(final byte[] boundary, final int length) {
+            this.boundary = boundary;
+            this.length = length;
+            if (table == null || table.length < length + 1) {
+                table = new int[length + 1];
+            }
+            int position = 2;
+            int candidate = 0;
+
+            table[0] = -1;
+            table[1] = 0;
+
+            while (position <= length) {
+                if (boundary[position - 1] == boundary[candidate]) {
+                    table[position] = candidate + 1;
+                    candidate++;
+                    position++;
+                } else if (candidate > 0) {
+                    candidate = table[candidate];
+                } else {
+                    table[position] = 0;
+                    position++;
+                }
+            }
+        }
+
+        @Override
+        int find(final byte[] buffer, final int from, final int to) {
+            int bufferPos = from;
+            int tablePos = 0;
+
+            while (bufferPos < to) {
+                while (tablePos >= 0 && buffer[bufferPos] != boundary[tablePos]) {
+                    tablePos = table[tablePos];
+                }
+                bufferPos++;
+                tablePos++;
+                if (tablePos == length) {
+                    return bufferPos - length;
+                }
+            }
+            return -1;
+        }
+
+    }
+
+    /**
+     * The Boyer-Moore-Horspool implementation.
+     */
+    private static final class HorspoolFinder extends Finder {
+
+        /**
+         * The boundary.
+         */
+        private byte[] boundary;
+
+        /**
+         * The number of bytes used in {@link #boundary}.
+         */
+        private int length;
+
+        /**
+         * The distance to skip, indexed by the unsigned value of the buffer byte, which is aligned with the last byte of the boundary.
+         */
+        private final int[] skipTable = new int[1 << Byte.SIZE];
+
+        @Override
+        void compile(final byte[] boundary, final int length) {
+            this.boundary = boundary;
+            this.length = length;
+            Arrays.fill(skipTable, length);
+            for (int i = 0; i < length - 1; i++) {
+                skipTable[Byte.toUnsignedInt(boundary[i])] = length - 1 - i;
+            }
+        }
+
+        @Override
+        int find(final byte[] buffer, final int from, final int to) {
+            final int lastIndex = length - 1;
+            final byte lastByte = boundary[lastIndex];
+            final int last = to - length;
+            int pos = from;
+            while (pos <= last) {
+                final byte b = buffer[pos + lastIndex];
+                if (b == lastByte) {
+                    int i = lastIndex - 1;
+                    while (i >= 0 && buffer[pos + i] == boundary[i]) {
+                        i--;
+                    }
+                    if (i < 0) {
+                        return pos;
+                    }
+                }
+                pos += skipTable[Byte.toUnsignedInt(b)];
+            }
+            return -1;
+        }
+
+    }
+
+    /**
+     * The word scanning implementation. Uses the well known "has zero byte" bit trick on eight bytes at a time to find candidates for the first byte of the
+     * boundary.
+     */
+    private static final class WordScanFinder extends Finder {
+
+        /**
+         * A {@code long} with every byte set to 0x01.
+         */
+        private static final long LOW_BITS = 0x0101010101010101L;
+
+        /**
+         * A {@code long} with every byte set to 0x80.
+         */
+        private static final long HIGH_BITS = 0x8080808080808080L;
+
+        /**
+         * The boundary.
+         */
+        private byte[] boundary;
+
+        /**
+         * The number of bytes used in {@link #boundary}.
+         */
+        private int length;
+
+        /**
+         * The first byte of the boundary, repeated eight times.
+         */
+        private long pattern;
+
+        /**
+         * The buffer, which is currently wrapped by {@link #words}.
+         */
+        private byte[] wrapped;
+
+        /**
+         * A little endian view of {@link #wrapped}, used for reading {@code long} values.
+         */
+        private ByteBuffer words;
+
+        @Override
+        void compile(final byte[] boundary, final int length) {
+            this.boundary = boundary;
+            this.length = length;
+            this.pattern = Byte.toUnsignedLong(boundary[0]) * LOW_BITS;
+        }
+
+        @Override
+        int find(final byte[] buffer, final int from, final int to) {
+            if (buffer != wrapped) {
+                words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+                wrapped = buffer;
+            }
+            final int last = to - length;
+            int pos = from;
+            while (pos <= last) {
+                if (pos + Long.BYTES <= to) {
+                    final long word = words.getLong(pos) ^ pattern;
+                    final long candidates = (word - LOW_BITS) & ~word & HIGH_BITS;
+                    if (candidates == 0) {
+                        pos += Long.BYTES;
+                        continue;
+                    }
+                    // The lowest flagged byte is always a true match, higher ones may be false positives.
+                    pos += Long.numberOfTrailingZeros(candidates) / Byte.SIZE;
+                    if (pos > last) {
+                        break;
+                    }
+                } else if (buffer[pos] != boundary[0]) {
+                    pos++;
+                    continue;
+                }
+                if (matches(buffer, pos)) {
+                    return pos;
+                }
+                pos++;
+            }
+            return -1;
+        }
+
+        /**
+         * Tests, whether the complete boundary starts at the given position.
+         *
+         * @param buffer The buffer to search.
+         * @param pos    The candidate position, where the first byte of the boundary has been found.
+         * @return True, if the boundary has been found.
+         */
+        private boolean matches(final byte[] buffer, final int pos) {
+            for (int i = 1; i < length; i++) {
+                if (buffer[pos + i] != boundary[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    /**
+     * Gets the algorithm, which is used by default. This is {@link #WORD_SCAN} on Java 9, or later, and {@link #KNUTH_MORRIS_PRATT} on Java 8, where reading
+     * a {@code long} from a heap buffer is done byte by byte.
+     *
+     * @return The default algorithm.
+     */
+    public static BoundarySearch getDefault() {
+        final String version = System.getProperty("java.specification.version", "1.8");
+        return version.startsWith("1.") ? KNUTH_MORRIS_PRATT : WORD_SCAN;
+    }
+
+    /**
+     * Creates a new finder, which implements this algorithm.
+     *
+     * @return A new finder.
+     */
+    abstract Finder newFinder();
+
+}
@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 /**
  * <p>
@@ -58,6 +59,18 @@ public interface FileItem extends FileItemHeadersSupport {
      */
     byte[] get() throws UncheckedIOException;
 
+    /**
+     * Gets the contents of the file item as a read-only buffer. Unlike {@link #get()}, implementations should return a view of the contents, rather than a
+     * copy, where possible. The default implementation wraps the result of {@link #get()}.
+     *
+     * @return The contents of the file item.
+     * @throws UncheckedIOException if an I/O error occurs
+     * @since 2.0
+     */
+    default ByteBuffer getByteBuffer() throws UncheckedIOException {
+        return ByteBuffer.wrap(get()).asReadOnlyBuffer();
+    }
+
     /**
      * Gets the content type passed by the browser or {@code null} if not defined.
      *
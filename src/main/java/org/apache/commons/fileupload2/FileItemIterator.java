@@ -18,6 +18,7 @@ package org.apache.commons.fileupload2;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Objects;
 
 import javax.naming.SizeLimitExceededException;
 
@@ -76,6 +77,37 @@ public interface FileItemIterator {
      */
     FileItemStream next() throws FileUploadException, IOException;
 
+    /**
+     * Skips all items up to the next item with the given field name, and
+     * returns it. The default implementation iterates over the items by
+     * {@link #hasNext()}, and {@link #next()}, until the field name
+     * matches. Implementations should override this, if they can discard
+     * the skipped items without copying their contents, and without
+     * creating {@link FileItemStream} instances for them, as the iterator
+     * of {@link AbstractFileUpload#getItemIterator(RequestContext)} does.
+     * That includes a {@code multipart/mixed} item with a different
+     * field name, which is skipped as a whole.
+     *
+     * @param fieldName The field name to look for.
+     * @throws FileUploadException Parsing or processing the
+     *   file item failed.
+     * @throws IOException Reading the file item failed.
+     * @return The next item with the given field name, or null, if
+     *   no further item has that field name. In the latter case, all
+     *   remaining items have been skipped.
+     * @since 2.0
+     */
+    default FileItemStream skipToField(final String fieldName) throws FileUploadException, IOException {
+        Objects.requireNonNull(fieldName, "fieldName");
+        while (hasNext()) {
+            final FileItemStream item = next();
+            if (fieldName.equals(item.getFieldName())) {
+                return item;
+            }
+        }
+        return null;
+    }
+
     /**
      * Sets the maximum size of a single file. An {@link FileUploadByteCountLimitException}
      * will be thrown, if there is an uploaded file, which is exceeding this value.
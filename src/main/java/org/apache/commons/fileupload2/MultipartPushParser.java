@@ -0,0 +1,592 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+
+import org.apache.commons.fileupload2.MultipartStream.MalformedStreamException;
+import org.apache.commons.fileupload2.pub.FileUploadFileCountLimitException;
+import org.apache.commons.fileupload2.pub.FileUploadSizeException;
+import org.apache.commons.fileupload2.util.FileItemHeadersImpl;
+import org.apache.commons.fileupload2.util.HeaderTokenizer;
+
+/**
+ * A non-blocking, push-style parser for multipart streams.
+ * <p>
+ * Unlike {@link MultipartStream}, which pulls its data from an input stream, this parser is fed with chunks of data by calling {@link #feed(ByteBuffer)},
+ * whenever they become available, and reports the parts to a {@link Listener}. No thread is blocked, while waiting for data, which makes it suitable for
+ * asynchronous I/O, like the Servlet 3.1 {@code ReadListener}. The end of the input must be signaled by calling {@link #finish()}.
+ * </p>
+ * <p>
+ * The parser buffers no more than the boundary length of body data between calls to {@link #feed(ByteBuffer)}, and up to
+ * {@link MultipartStream#HEADER_PART_SIZE_MAX} bytes of headers. Parts of type {@code multipart/mixed} are reported like any other part; their body is
+ * not parsed recursively.
+ * </p>
+ * <p>
+ * Instances are not thread-safe. The caller must ensure, that the methods are not invoked concurrently, which is the case for the callbacks of a
+ * {@code ReadListener}.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class MultipartPushParser {
+
+    /**
+     * Receives the events of a {@link MultipartPushParser}.
+     * <p>
+     * The methods are invoked from within {@link MultipartPushParser#feed(ByteBuffer)}, and {@link MultipartPushParser#finish()}. Exceptions, which are
+     * thrown by the listener, abort parsing.
+     * </p>
+     */
+    public interface Listener {
+
+        /**
+         * Called, when the parser has reached the end of the multipart stream, and all input has been consumed.
+         *
+         * @throws IOException Processing the event failed.
+         */
+        void completed() throws IOException;
+
+        /**
+         * Called, when parsing has failed, because of malformed input, an exceeded limit, an exception thrown by the listener, or because
+         * {@link MultipartPushParser#fail(Throwable)} has been called. No further events are reported.
+         *
+         * @param cause The reason for the failure.
+         */
+        void failed(Throwable cause);
+
+        /**
+         * Called with a chunk of the current parts body. The buffer is only valid during the call, because its contents are overwritten by subsequent
+         * data. The listener must consume the data, or copy it.
+         *
+         * @param data The chunk of data, between the buffers position, and its limit.
+         * @throws IOException Processing the event failed.
+         */
+        void partData(ByteBuffer data) throws IOException;
+
+        /**
+         * Called, when the current parts body is complete.
+         *
+         * @throws IOException Processing the event failed.
+         */
+        void partEnded() throws IOException;
+
+        /**
+         * Called at the start of a new part, after its headers have been parsed.
+         *
+         * @param headers The parts headers.
+         * @throws IOException Processing the event failed.
+         */
+        void partStarted(FileItemHeaders headers) throws IOException;
+
+    }
+
+    /**
+     * The states of the parser.
+     */
+    private enum State {
+
+        /** Looking for the first boundary. */
+        PREAMBLE,
+
+        /** Reading the characters, which follow a boundary. */
+        DELIMITER,
+
+        /** Reading the {@code header-part} of a part. */
+        HEADERS,
+
+        /** Reading the body of a part. */
+        BODY,
+
+        /** The close delimiter has been seen, any remaining input is ignored. */
+        EPILOGUE,
+
+        /** Parsing has failed. */
+        FAILED
+
+    }
+
+    /**
+     * The listener, which receives the events.
+     */
+    private final Listener listener;
+
+    /**
+     * The boundary, including the leading {@code CRLF--}.
+     */
+    private final byte[] boundary;
+
+    /**
+     * Finds the {@link #boundary} in the body of a part.
+     */
+    private final BoundarySearch.Finder boundaryFinder;
+
+    /**
+     * The length of the first boundary, which lacks the leading {@code CRLF}.
+     */
+    private final int preambleBoundaryLength;
+
+    /**
+     * Finds the first boundary in the preamble.
+     */
+    private final BoundarySearch.Finder preambleFinder;
+
+    /**
+     * The buffer, which holds the data, that hasn't been processed yet.
+     */
+    private byte[] buffer;
+
+    /**
+     * A view of {@link #buffer}, which is passed to {@link Listener#partData(ByteBuffer)}.
+     */
+    private ByteBuffer view;
+
+    /**
+     * The index of the first unprocessed byte in {@link #buffer}.
+     */
+    private int head;
+
+    /**
+     * The index of the last valid byte in {@link #buffer}, plus one.
+     */
+    private int tail;
+
+    /**
+     * The index of the next byte, which is checked for the end of the {@code header-part}.
+     */
+    private int headerScan;
+
+    /**
+     * The number of bytes of the {@code CRLFCRLF} sequence, which have already been matched.
+     */
+    private int headerMatch;
+
+    /**
+     * The current state.
+     */
+    private State state = State.PREAMBLE;
+
+    /**
+     * The charset, which is used for decoding headers.
+     */
+    private Charset headerCharset = Charset.defaultCharset();
+
+    /**
+     * The maximum number of bytes of the complete request, or -1.
+     */
+    private long sizeMax = -1;
+
+    /**
+     * The maximum number of bytes of a single parts body, or -1.
+     */
+    private long partSizeMax = -1;
+
+    /**
+     * The maximum number of parts, or -1.
+     */
+    private long partCountMax = -1;
+
+    /**
+     * The number of parts, which have been started.
+     */
+    private long partCount;
+
+    /**
+     * The number of bytes, which have been fed to the parser.
+     */
+    private long bytesFed;
+
+    /**
+     * The number of bytes of the current parts body, which have been reported.
+     */
+    private long partBytes;
+
+    /**
+     * Creates a new instance with a buffer of {@link MultipartStream#DEFAULT_BUFSIZE} bytes.
+     *
+     * @param boundary The token used for dividing the stream into {@code encapsulations}.
+     * @param listener The listener, which receives the events.
+     * @throws IllegalArgumentException If the boundary is null, or empty.
+     */
+    public MultipartPushParser(final byte[] boundary, final Listener listener) {
+        this(boundary, listener, null);
+    }
+
+    /**
+     * Creates a new instance with a buffer of {@link MultipartStream#DEFAULT_BUFSIZE} bytes, which uses the given algorithm to find boundaries.
+     *
+     * @param boundary       The token used for dividing the stream into {@code encapsulations}.
+     * @param listener       The listener, which receives the events.
+     * @param boundarySearch The boundary search algorithm, or null for the {@link BoundarySearch#getDefault() default}.
+     * @throws IllegalArgumentException If the boundary is null, or empty.
+     */
+    public MultipartPushParser(final byte[] boundary, final Listener listener, final BoundarySearch boundarySearch) {
+        if (boundary == null || boundary.length == 0) {
+            throw new IllegalArgumentException("boundary may not be null, or empty");
+        }
+        this.listener = listener;
+        this.boundary = new byte[boundary.length + MultipartStream.BOUNDARY_PREFIX.length];
+        System.arraycopy(MultipartStream.BOUNDARY_PREFIX, 0, this.boundary, 0, MultipartStream.BOUNDARY_PREFIX.length);
+        System.arraycopy(boundary, 0, this.boundary, MultipartStream.BOUNDARY_PREFIX.length, boundary.length);
+        this.buffer = new byte[Math.max(MultipartStream.DEFAULT_BUFSIZE, this.boundary.length * 2)];
+        final BoundarySearch search = boundarySearch == null ? BoundarySearch.getDefault() : boundarySearch;
+        this.boundaryFinder = search.newFinder();
+        this.boundaryFinder.compile(this.boundary, this.boundary.length);
+        // The first boundary may be at the very beginning, without a preceding CRLF.
+        final byte[] preambleBoundary = Arrays.copyOfRange(this.boundary, MultipartStream.FIELD_SEPARATOR.length, this.boundary.length);
+        this.preambleBoundaryLength = preambleBoundary.length;
+        this.preambleFinder = search.newFinder();
+        this.preambleFinder.compile(preambleBoundary, preambleBoundaryLength);
+    }
+
+    /**
+     * Reports the given range of the buffer as part data.
+     *
+     * @param from The index of the first byte.
+     * @param to   The index of the last byte, plus one.
+     * @throws IOException The listener failed, or the part size limit has been exceeded.
+     */
+    private void emit(final int from, final int to) throws IOException {
+        if (from == to) {
+            return;
+        }
+        partBytes += to - from;
+        if (partSizeMax >= 0 && partBytes > partSizeMax) {
+            throw new FileUploadSizeException(String.format("The part exceeds its maximum permitted size of %s bytes.", partSizeMax), partSizeMax, partBytes);
+        }
+        if (view == null || view.array() != buffer) {
+            view = ByteBuffer.wrap(buffer);
+        }
+        view.limit(to).position(from);
+        listener.partData(view);
+    }
+
+    /**
+     * Aborts parsing, for example, because reading the input has failed. The listener is notified, unless parsing has already failed.
+     *
+     * @param cause The reason for the failure.
+     */
+    public void fail(final Throwable cause) {
+        if (state != State.FAILED) {
+            state = State.FAILED;
+            listener.failed(cause);
+        }
+    }
+
+    /**
+     * Feeds the next chunk of input to the parser. All events, which can be derived from the input, are reported, before this method returns.
+     *
+     * @param data The input, between the buffers position, and its limit. The buffer is consumed completely.
+     * @throws IOException The input is malformed, a limit has been exceeded, or the listener has failed. The listener has been notified already.
+     * @throws IllegalStateException Parsing has already failed.
+     */
+    public void feed(final ByteBuffer data) throws IOException {
+        checkNotFailed();
+        try {
+            bytesFed += data.remaining();
+            if (sizeMax >= 0 && bytesFed > sizeMax) {
+                throw new FileUploadSizeException(
+                        String.format("The request was rejected because its size (%s) exceeds the configured maximum (%s)", bytesFed, sizeMax), sizeMax,
+                        bytesFed);
+            }
+            while (data.hasRemaining()) {
+                if (state == State.EPILOGUE) {
+                    data.position(data.limit());
+                    break;
+                }
+                if (tail == buffer.length) {
+                    makeRoom();
+                }
+                final int length = Math.min(data.remaining(), buffer.length - tail);
+                data.get(buffer, tail, length);
+                tail += length;
+                process();
+            }
+        } catch (final IOException | RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Signals the end of the input.
+     *
+     * @throws IOException The multipart stream isn't complete, or the listener has failed. The listener has been notified already.
+     * @throws IllegalStateException Parsing has already failed.
+     */
+    public void finish() throws IOException {
+        checkNotFailed();
+        try {
+            if (state != State.EPILOGUE) {
+                throw new MalformedStreamException("Stream ended unexpectedly");
+            }
+            listener.completed();
+        } catch (final IOException | RuntimeException e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the number of bytes, which have been fed to the parser.
+     *
+     * @return The number of bytes, which have been fed so far.
+     */
+    public long getBytesFed() {
+        return bytesFed;
+    }
+
+    /**
+     * Gets the maximum number of parts.
+     *
+     * @return The maximum number of parts, or -1 for no limit.
+     */
+    public long getPartCountMax() {
+        return partCountMax;
+    }
+
+    /**
+     * Gets the maximum size of a single parts body.
+     *
+     * @return The maximum size in bytes, or -1 for no limit.
+     */
+    public long getPartSizeMax() {
+        return partSizeMax;
+    }
+
+    /**
+     * Gets the maximum size of the complete request.
+     *
+     * @return The maximum size in bytes, or -1 for no limit.
+     */
+    public long getSizeMax() {
+        return sizeMax;
+    }
+
+    /**
+     * Tests, whether parsing has failed.
+     *
+     * @return True, if parsing has failed, otherwise false.
+     */
+    public boolean isFailed() {
+        return state == State.FAILED;
+    }
+
+    /**
+     * Throws an exception, if parsing has failed.
+     */
+    private void checkNotFailed() {
+        if (state == State.FAILED) {
+            throw new IllegalStateException("Parsing has already failed");
+        }
+    }
+
+    /**
+     * Makes room at the end of the buffer by discarding the processed bytes, or by growing the buffer, if it is filled with an incomplete
+     * {@code header-part}.
+     */
+    private void makeRoom() {
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            headerScan -= head;
+            tail -= head;
+            head = 0;
+        } else {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+    }
+
+    /**
+     * Processes the buffered data, until more input is required.
+     *
+     * @throws IOException The input is malformed, a limit has been exceeded, or the listener has failed.
+     */
+    private void process() throws IOException {
+        for (;;) {
+            switch (state) {
+            case PREAMBLE: {
+                final int pos = preambleFinder.find(buffer, head, tail);
+                if (pos == -1) {
+                    head = Math.max(head, tail - preambleBoundaryLength + 1);
+                    return;
+                }
+                head = pos + preambleBoundaryLength;
+                state = State.DELIMITER;
+                break;
+            }
+            case DELIMITER:
+                if (!processDelimiter()) {
+                    return;
+                }
+                break;
+            case HEADERS:
+                if (!processHeaders()) {
+                    return;
+                }
+                break;
+            case BODY: {
+                final int pos = boundaryFinder.find(buffer, head, tail);
+                if (pos == -1) {
+                    // Keep the bytes, which might be the start of the boundary.
+                    final int end = Math.max(head, tail - boundary.length + 1);
+                    emit(head, end);
+                    head = end;
+                    return;
+                }
+                emit(head, pos);
+                head = pos + boundary.length;
+                state = State.DELIMITER;
+                listener.partEnded();
+                break;
+            }
+            default:
+                return;
+            }
+        }
+    }
+
+    /**
+     * Processes the characters, which follow a boundary.
+     *
+     * @return True, if the delimiter has been processed, false, if more input is required.
+     * @throws MalformedStreamException Unexpected characters follow the boundary.
+     */
+    private boolean processDelimiter() throws MalformedStreamException {
+        if (tail - head < 1) {
+            return false;
+        }
+        if (buffer[head] == MultipartStream.LF) {
+            // Work around IE5 Mac bug with input type=image, see MultipartStream.readBoundary().
+            head++;
+            startHeaders();
+            return true;
+        }
+        if (tail - head < 2) {
+            return false;
+        }
+        final byte b0 = buffer[head];
+        final byte b1 = buffer[head + 1];
+        if (b0 == MultipartStream.DASH && b1 == MultipartStream.DASH) {
+            head += 2;
+            state = State.EPILOGUE;
+        } else if (b0 == MultipartStream.CR && b1 == MultipartStream.LF) {
+            head += 2;
+            startHeaders();
+        } else {
+            throw new MalformedStreamException("Unexpected characters follow a boundary");
+        }
+        return true;
+    }
+
+    /**
+     * Searches for the end of the {@code header-part}, and reports the start of the part, once it has been found.
+     *
+     * @return True, if the headers have been processed, false, if more input is required.
+     * @throws IOException The {@code header-part} is too large, the part count limit has been exceeded, or the listener has failed.
+     */
+    private boolean processHeaders() throws IOException {
+        if (partCountMax >= 0 && partCount == partCountMax) {
+            // The next part will exceed the limit.
+            throw new FileUploadFileCountLimitException(String.format("The request has more than the maximum permitted number of %s parts.", partCountMax),
+                    partCountMax, partCount + 1);
+        }
+        final byte[] separator = MultipartStream.HEADER_SEPARATOR;
+        while (headerScan < tail && headerMatch < separator.length) {
+            final byte b = buffer[headerScan++];
+            if (headerScan - head > MultipartStream.HEADER_PART_SIZE_MAX) {
+                throw new MalformedStreamException(
+                        String.format("Header section has more than %s bytes (maybe it is not properly terminated)", MultipartStream.HEADER_PART_SIZE_MAX));
+            }
+            if (b == separator[headerMatch]) {
+                headerMatch++;
+            } else {
+                headerMatch = 0;
+            }
+        }
+        if (headerMatch < separator.length) {
+            return false;
+        }
+        final FileItemHeadersImpl headers = new FileItemHeadersImpl();
+        HeaderTokenizer.tokenize(buffer, head, headerScan - head, headerCharset, headers);
+        head = headerScan;
+        partBytes = 0;
+        partCount++;
+        state = State.BODY;
+        listener.partStarted(headers);
+        return true;
+    }
+
+    /**
+     * Sets the character encoding to be used when reading the headers of individual parts. When not specified, or {@code null}, the platform default
+     * encoding is used.
+     *
+     * @param encoding The character encoding used to read the headers of individual parts.
+     */
+    public void setHeaderEncoding(final String encoding) {
+        headerCharset = Charset.defaultCharset();
+        if (encoding != null) {
+            try {
+                headerCharset = Charset.forName(encoding);
+            } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+                // Keep the platform default, like MultipartStream does.
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of parts. If it is exceeded, then a {@link FileUploadFileCountLimitException} is thrown, before the surplus part is
+     * reported.
+     *
+     * @param partCountMax The maximum number of parts, or -1 (default) for no limit.
+     */
+    public void setPartCountMax(final long partCountMax) {
+        this.partCountMax = partCountMax;
+    }
+
+    /**
+     * Sets the maximum size of a single parts body. If it is exceeded, then a {@link FileUploadSizeException} is thrown.
+     *
+     * @param partSizeMax The maximum size in bytes, or -1 (default) for no limit.
+     */
+    public void setPartSizeMax(final long partSizeMax) {
+        this.partSizeMax = partSizeMax;
+    }
+
+    /**
+     * Sets the maximum size of the complete request. If it is exceeded, then a {@link FileUploadSizeException} is thrown.
+     *
+     * @param sizeMax The maximum size in bytes, or -1 (default) for no limit.
+     */
+    public void setSizeMax(final long sizeMax) {
+        this.sizeMax = sizeMax;
+    }
+
+    /**
+     * Switches to reading a {@code header-part}.
+     */
+    private void startHeaders() {
+        headerScan = head;
+        headerMatch = 0;
+        state = State.HEADERS;
+    }
+
+}
@@ -21,11 +21,16 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 
 import org.apache.commons.fileupload2.pub.FileUploadSizeException;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.fileupload2.util.FileItemHeadersImpl;
+import org.apache.commons.fileupload2.util.HeaderTokenizer;
 
 /**
  * Low-level API for processing file uploads.
@@ -131,6 +136,11 @@ public class MultipartStream {
          */
         private boolean closed;
 
+        /**
+         * A view of the {@link MultipartStream} buffer, which is created by {@link #transferTo(WritableByteChannel)}.
+         */
+        private ByteBuffer byteBuffer;
+
         /**
          * Creates a new instance.
          */
@@ -174,20 +184,41 @@ public class MultipartStream {
             }
             if (closeUnderlying) {
                 closed = true;
-                input.close();
+                if (channel == null) {
+                    input.close();
+                } else {
+                    channel.close();
+                }
             } else {
-                for (;;) {
-                    int av = available();
+                discard();
+            }
+            closed = true;
+        }
+
+        /**
+         * Discards the remaining bytes of this stream. This only advances the buffer position, and searches for the boundary, whenever the buffer is
+         * refilled. No bytes are copied, except for the few bytes, which must be kept, because they might be the start of the boundary.
+         *
+         * @return The number of bytes, which have been discarded.
+         * @throws IOException An I/O error occurred.
+         * @since 2.0
+         */
+        public long discard() throws IOException {
+            if (closed) {
+                throw new FileItemStream.ItemSkippedException();
+            }
+            long discarded = 0;
+            for (;;) {
+                int av = available();
+                if (av == 0) {
+                    av = makeAvailable();
                     if (av == 0) {
-                        av = makeAvailable();
-                        if (av == 0) {
-                            break;
-                        }
+                        return discarded;
                     }
-                    skip(av);
                 }
+                head += av;
+                discarded += av;
             }
-            closed = true;
         }
 
         /**
@@ -237,7 +268,7 @@ public class MultipartStream {
             tail = pad;
 
             for (;;) {
-                final int bytesRead = input.read(buffer, tail, bufSize - tail);
+                final int bytesRead = readInput(tail, bufSize - tail);
                 if (bytesRead == -1) {
                     // The last pad amount is left in the buffer.
                     // Boundary can't be in there so signal an error
@@ -336,6 +367,71 @@ public class MultipartStream {
             return res;
         }
 
+        /**
+         * Writes the remaining bytes of this stream to the given output stream. The bytes are written directly from the {@link MultipartStream} buffer,
+         * without copying them into an intermediate buffer first. Consequently, the output stream must neither modify, nor retain the array, which is passed
+         * to its {@code write} method.
+         *
+         * @param output The output stream to write to.
+         * @return The number of bytes, which have been written.
+         * @throws IOException An I/O error occurred.
+         * @since 2.0
+         */
+        public long transferTo(final OutputStream output) throws IOException {
+            if (closed) {
+                throw new FileItemStream.ItemSkippedException();
+            }
+            long transferred = 0;
+            for (;;) {
+                int av = available();
+                if (av == 0) {
+                    av = makeAvailable();
+                    if (av == 0) {
+                        return transferred;
+                    }
+                }
+                output.write(buffer, head, av);
+                head += av;
+                total += av;
+                transferred += av;
+            }
+        }
+
+        /**
+         * Writes the remaining bytes of this stream to the given channel. The bytes are written directly from the {@link MultipartStream} buffer, without
+         * copying them into an intermediate buffer first.
+         *
+         * @param channel The channel to write to. If the channel is in non-blocking mode, then this method spins until the channel accepts the bytes.
+         * @return The number of bytes, which have been written.
+         * @throws IOException An I/O error occurred.
+         * @since 2.0
+         */
+        public long transferTo(final WritableByteChannel channel) throws IOException {
+            if (closed) {
+                throw new FileItemStream.ItemSkippedException();
+            }
+            if (byteBuffer == null) {
+                byteBuffer = ByteBuffer.wrap(buffer);
+            }
+            long transferred = 0;
+            for (;;) {
+                int av = available();
+                if (av == 0) {
+                    av = makeAvailable();
+                    if (av == 0) {
+                        return transferred;
+                    }
+                }
+                byteBuffer.limit(head + av).position(head);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                head += av;
+                total += av;
+                transferred += av;
+            }
+        }
+
     }
 
     /**
@@ -461,7 +557,7 @@ public class MultipartStream {
     /**
      * The default length of the buffer used for processing a request.
      */
-    protected static final int DEFAULT_BUFSIZE = 4096;
+    public static final int DEFAULT_BUFSIZE = 4096;
 
     /**
      * A byte sequence that marks the end of {@code header-part} ({@code CRLFCRLF}).
@@ -501,10 +597,20 @@ public class MultipartStream {
     }
 
     /**
-     * The input stream from which data is read.
+     * The input stream from which data is read, or null, if data is read from {@link #channel}.
      */
     private final InputStream input;
 
+    /**
+     * The channel from which data is read, or null, if data is read from {@link #input}.
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * A view of {@link #buffer}, which is used for reading from {@link #channel}.
+     */
+    private ByteBuffer channelBuffer;
+
     /**
      * The length of the boundary token plus the leading {@code CRLF--}.
      */
@@ -521,9 +627,14 @@ public class MultipartStream {
     private final byte[] boundary;
 
     /**
-     * The table for Knuth-Morris-Pratt search algorithm.
+     * The algorithm used for locating the boundary.
+     */
+    private BoundarySearch boundarySearch;
+
+    /**
+     * The implementation of {@link #boundarySearch}.
      */
-    private final int[] boundaryTable;
+    private BoundarySearch.Finder boundaryFinder;
 
     /**
      * The length of the buffer used for processing the request.
@@ -552,6 +663,27 @@ public class MultipartStream {
      */
     private String headerEncoding;
 
+    /**
+     * The charset, which corresponds to {@link #headerEncoding}.
+     */
+    private Charset headerCharset = Charset.defaultCharset();
+
+    /**
+     * The array, which holds the {@code header-part} found by {@link #readHeaderPart()}. This is either {@link #buffer}, or a copy, if the
+     * {@code header-part} did span a buffer refill.
+     */
+    private byte[] headerPart;
+
+    /**
+     * The offset of the {@code header-part} in {@link #headerPart}.
+     */
+    private int headerPartOffset;
+
+    /**
+     * The length of the {@code header-part} in {@link #headerPart}, including the trailing {@code CRLFCRLF}.
+     */
+    private int headerPartLength;
+
     /**
      * The progress notifier, if any, or null.
      */
@@ -573,6 +705,72 @@ public class MultipartStream {
      * @since 1.3.1
      */
     public MultipartStream(final InputStream input, final byte[] boundary, final int bufferSize, final ProgressNotifier notifier) {
+        this(input, boundary, new byte[getBufferSize(boundary, bufferSize)], notifier);
+    }
+
+    /**
+     * Constructs a {@code MultipartStream}, which uses the given buffer.
+     * <p>
+     * This allows to reuse buffers, for example by obtaining them from a {@link org.apache.commons.fileupload2.util.BufferPool}. The stream uses the whole
+     * buffer, and the caller must not access the buffer, until the stream is no longer used.
+     * </p>
+     * @param input    The {@code InputStream} to serve as a data source.
+     * @param boundary The token used for dividing the stream into {@code encapsulations}.
+     * @param buffer   The buffer to use. Must be at least big enough to contain the boundary string, plus 4 characters for CR/LF and double dash, plus at
+     *                 least one byte of data.
+     * @param notifier The notifier, which is used for calling the progress listener, if any.
+     * @throws IllegalArgumentException If the buffer is too small.
+     * @since 2.0
+     */
+    public MultipartStream(final InputStream input, final byte[] boundary, final byte[] buffer, final ProgressNotifier notifier) {
+        this(input, null, boundary, buffer, notifier);
+    }
+
+    /**
+     * Constructs a {@code MultipartStream}, which reads from a channel, with a custom size buffer.
+     * <p>
+     * Reading from a channel avoids the intermediate copy, which many {@code InputStream} adapters perform. The channel must be in blocking mode.
+     * </p>
+     * @param channel    The {@code ReadableByteChannel} to serve as a data source.
+     * @param boundary   The token used for dividing the stream into {@code encapsulations}.
+     * @param bufferSize The size of the buffer to be used, in bytes.
+     * @param notifier   The notifier, which is used for calling the progress listener, if any.
+     * @throws IllegalArgumentException If the buffer size is too small.
+     * @see #MultipartStream(InputStream, byte[], int, ProgressNotifier)
+     * @since 2.0
+     */
+    public MultipartStream(final ReadableByteChannel channel, final byte[] boundary, final int bufferSize, final ProgressNotifier notifier) {
+        this(null, channel, boundary, new byte[getBufferSize(boundary, bufferSize)], notifier);
+    }
+
+    /**
+     * Constructs a {@code MultipartStream}, which reads from a channel, and uses the given buffer.
+     *
+     * @param channel  The {@code ReadableByteChannel} to serve as a data source. Must be in blocking mode.
+     * @param boundary The token used for dividing the stream into {@code encapsulations}.
+     * @param buffer   The buffer to use. Must be at least big enough to contain the boundary string, plus 4 characters for CR/LF and double dash, plus at
+     *                 least one byte of data.
+     * @param notifier The notifier, which is used for calling the progress listener, if any.
+     * @throws IllegalArgumentException If the buffer is too small.
+     * @see #MultipartStream(InputStream, byte[], byte[], ProgressNotifier)
+     * @since 2.0
+     */
+    public MultipartStream(final ReadableByteChannel channel, final byte[] boundary, final byte[] buffer, final ProgressNotifier notifier) {
+        this(null, channel, boundary, buffer, notifier);
+    }
+
+    /**
+     * Constructs a {@code MultipartStream}, which reads from either an input stream, or a channel.
+     *
+     * @param input    The {@code InputStream} to serve as a data source, or null.
+     * @param channel  The {@code ReadableByteChannel} to serve as a data source, if {@code input} is null.
+     * @param boundary The token used for dividing the stream into {@code encapsulations}.
+     * @param buffer   The buffer to use.
+     * @param notifier The notifier, which is used for calling the progress listener, if any.
+     * @throws IllegalArgumentException If the buffer is too small.
+     */
+    private MultipartStream(final InputStream input, final ReadableByteChannel channel, final byte[] boundary, final byte[] buffer,
+            final ProgressNotifier notifier) {
 
         if (boundary == null) {
             throw new IllegalArgumentException("boundary may not be null");
@@ -580,18 +778,20 @@ public class MultipartStream {
         // We prepend CR/LF to the boundary to chop trailing CR/LF from
         // body-data tokens.
         this.boundaryLength = boundary.length + BOUNDARY_PREFIX.length;
-        if (bufferSize < this.boundaryLength + 1) {
+        if (buffer.length < this.boundaryLength + 1) {
             throw new IllegalArgumentException("The buffer size specified for the MultipartStream is too small");
         }
 
         this.input = input;
-        this.bufSize = Math.max(bufferSize, boundaryLength * 2);
-        this.buffer = new byte[this.bufSize];
+        this.channel = channel;
+        this.bufSize = buffer.length;
+        this.buffer = buffer;
         this.notifier = notifier;
 
         this.boundary = new byte[this.boundaryLength];
-        this.boundaryTable = new int[this.boundaryLength + 1];
         this.keepRegion = this.boundary.length;
+        this.boundarySearch = BoundarySearch.getDefault();
+        this.boundaryFinder = boundarySearch.newFinder();
 
         System.arraycopy(BOUNDARY_PREFIX, 0, this.boundary, 0, BOUNDARY_PREFIX.length);
         System.arraycopy(boundary, 0, this.boundary, BOUNDARY_PREFIX.length, boundary.length);
@@ -614,27 +814,29 @@ public class MultipartStream {
     }
 
     /**
-     * Computes the table used for Knuth-Morris-Pratt search algorithm.
+     * Computes the size of the buffer, which is being allocated by {@link #MultipartStream(InputStream, byte[], int, ProgressNotifier)}.
+     *
+     * @param boundary   The token used for dividing the stream into {@code encapsulations}.
+     * @param bufferSize The requested buffer size.
+     * @return The requested buffer size, or twice the boundary length, whichever is bigger.
+     * @throws IllegalArgumentException If the boundary is null, or the buffer size is too small.
      */
-    private void computeBoundaryTable() {
-        int position = 2;
-        int candidate = 0;
-
-        boundaryTable[0] = -1;
-        boundaryTable[1] = 0;
-
-        while (position <= boundaryLength) {
-            if (boundary[position - 1] == boundary[candidate]) {
-                boundaryTable[position] = candidate + 1;
-                candidate++;
-                position++;
-            } else if (candidate > 0) {
-                candidate = boundaryTable[candidate];
-            } else {
-                boundaryTable[position] = 0;
-                position++;
-            }
+    private static int getBufferSize(final byte[] boundary, final int bufferSize) {
+        if (boundary == null) {
+            throw new IllegalArgumentException("boundary may not be null");
+        }
+        final int boundaryLength = boundary.length + BOUNDARY_PREFIX.length;
+        if (bufferSize < boundaryLength + 1) {
+            throw new IllegalArgumentException("The buffer size specified for the MultipartStream is too small");
         }
+        return Math.max(bufferSize, boundaryLength * 2);
+    }
+
+    /**
+     * Computes the tables used by the boundary search algorithm.
+     */
+    private void computeBoundaryTable() {
+        boundaryFinder.compile(boundary, boundaryLength);
     }
 
     /**
@@ -647,7 +849,9 @@ public class MultipartStream {
      * @throws IOException              if an i/o error occurs.
      */
     public long discardBodyData() throws MalformedStreamException, IOException {
-        return readBodyData(NullOutputStream.NULL_OUTPUT_STREAM);
+        try (ItemInputStream inputStream = newInputStream()) {
+            return inputStream.discard();
+        }
     }
 
     /**
@@ -674,21 +878,17 @@ public class MultipartStream {
      * @return The position of the boundary found, counting from the beginning of the {@code buffer}, or {@code -1} if not found.
      */
     protected int findSeparator() {
+        return boundaryFinder.find(buffer, head, tail);
+    }
 
-        int bufferPos = this.head;
-        int tablePos = 0;
-
-        while (bufferPos < this.tail) {
-            while (tablePos >= 0 && buffer[bufferPos] != boundary[tablePos]) {
-                tablePos = boundaryTable[tablePos];
-            }
-            bufferPos++;
-            tablePos++;
-            if (tablePos == boundaryLength) {
-                return bufferPos - boundaryLength;
-            }
-        }
-        return -1;
+    /**
+     * Gets the algorithm, which is used for locating the boundary.
+     *
+     * @return The boundary search algorithm.
+     * @see BoundarySearch#getDefault()
+     */
+    public BoundarySearch getBoundarySearch() {
+        return boundarySearch;
     }
 
     /**
@@ -723,7 +923,7 @@ public class MultipartStream {
      */
     public long readBodyData(final OutputStream output) throws MalformedStreamException, IOException {
         try (ItemInputStream inputStream = newInputStream()) {
-            return IOUtils.copyLarge(inputStream, output);
+            return output == null ? inputStream.discard() : inputStream.transferTo(output);
         }
     }
 
@@ -776,18 +976,105 @@ public class MultipartStream {
     public byte readByte() throws IOException {
         // Buffer depleted ?
         if (head == tail) {
-            head = 0;
-            // Refill.
-            tail = input.read(buffer, head, bufSize);
-            if (tail == -1) {
-                // No more data available.
-                throw new IOException("No more data is available");
+            fill();
+        }
+        return buffer[head++];
+    }
+
+    /**
+     * Reads bytes from the input stream, or channel, into the {@code buffer}.
+     *
+     * @param off The offset in the {@code buffer}, at which to store the bytes.
+     * @param len The maximum number of bytes to read, at least one.
+     * @return The number of bytes, which have been read, or -1 at the end of the input.
+     * @throws IOException An I/O error occurred.
+     */
+    private int readInput(final int off, final int len) throws IOException {
+        if (channel == null) {
+            return input.read(buffer, off, len);
+        }
+        if (channelBuffer == null) {
+            channelBuffer = ByteBuffer.wrap(buffer);
+        }
+        channelBuffer.limit(off + len).position(off);
+        int bytesRead;
+        do {
+            // A blocking channel returns at least one byte, if there is room for it.
+            bytesRead = channel.read(channelBuffer);
+        } while (bytesRead == 0);
+        return bytesRead;
+    }
+
+    /**
+     * Refills the {@code buffer}, which must be depleted, from the input stream.
+     *
+     * @throws IOException if there is no more data available.
+     */
+    private void fill() throws IOException {
+        head = 0;
+        // Refill.
+        tail = readInput(head, bufSize);
+        if (tail == -1) {
+            // No more data available.
+            throw new IOException("No more data is available");
+        }
+        if (notifier != null) {
+            notifier.noteBytesRead(tail);
+        }
+    }
+
+    /**
+     * Reads the {@code header-part} of the current {@code encapsulation} into {@link #headerPart}. The {@code CRLFCRLF} marker is searched directly in the
+     * {@code buffer}, so no copy is made, unless the {@code header-part} spans a buffer refill.
+     *
+     * @throws FileUploadSizeException  if the bytes read from the stream exceeded the size limits.
+     * @throws MalformedStreamException if the stream ends unexpectedly, or the {@code header-part} exceeds {@link #HEADER_PART_SIZE_MAX}.
+     */
+    private void readHeaderPart() throws FileUploadSizeException, MalformedStreamException {
+        ByteArrayOutputStream spill = null;
+        int i = 0;
+        int size = 0;
+        for (;;) {
+            if (head == tail) {
+                try {
+                    fill();
+                } catch (final FileUploadSizeException e) {
+                    // wraps a FileUploadSizeException, re-throw as it will be unwrapped later
+                    throw e;
+                } catch (final IOException e) {
+                    throw new MalformedStreamException("Stream ended unexpectedly", e);
+                }
+            }
+            final int start = head;
+            while (head < tail && i < HEADER_SEPARATOR.length) {
+                final byte b = buffer[head++];
+                if (++size > HEADER_PART_SIZE_MAX) {
+                    throw new MalformedStreamException(
+                            String.format("Header section has more than %s bytes (maybe it is not properly terminated)", HEADER_PART_SIZE_MAX));
+                }
+                if (b == HEADER_SEPARATOR[i]) {
+                    i++;
+                } else {
+                    i = 0;
+                }
+            }
+            if (i == HEADER_SEPARATOR.length && spill == null) {
+                headerPart = buffer;
+                headerPartOffset = start;
+                headerPartLength = head - start;
+                return;
             }
-            if (notifier != null) {
-                notifier.noteBytesRead(tail);
+            if (spill == null) {
+                spill = new ByteArrayOutputStream();
+            }
+            spill.write(buffer, start, head - start);
+            if (i == HEADER_SEPARATOR.length) {
+                headerPart = spill.toByteArray();
+                headerPartOffset = 0;
+                headerPartLength = headerPart.length;
+                return;
             }
         }
-        return buffer[head++];
     }
 
     /**
@@ -803,45 +1090,33 @@ public class MultipartStream {
      * @throws MalformedStreamException if the stream ends unexpectedly.
      */
     public String readHeaders() throws FileUploadSizeException, MalformedStreamException {
-        int i = 0;
-        byte b;
+        readHeaderPart();
         // to support multi-byte characters
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int size = 0;
-        while (i < HEADER_SEPARATOR.length) {
-            try {
-                b = readByte();
-            } catch (final FileUploadSizeException e) {
-                // wraps a FileUploadSizeException, re-throw as it will be unwrapped later
-                throw e;
-            } catch (final IOException e) {
-                throw new MalformedStreamException("Stream ended unexpectedly", e);
-            }
-            if (++size > HEADER_PART_SIZE_MAX) {
-                throw new MalformedStreamException(
-                        String.format("Header section has more than %s bytes (maybe it is not properly terminated)", HEADER_PART_SIZE_MAX));
-            }
-            if (b == HEADER_SEPARATOR[i]) {
-                i++;
-            } else {
-                i = 0;
-            }
-            baos.write(b);
-        }
+        final String headers = new String(headerPart, headerPartOffset, headerPartLength, headerCharset);
+        headerPart = null;
+        return headers;
+    }
 
-        String headers;
-        if (headerEncoding != null) {
-            try {
-                headers = baos.toString(headerEncoding);
-            } catch (final UnsupportedEncodingException e) {
-                // Fall back to platform default if specified encoding is not
-                // supported.
-                headers = baos.toString();
-            }
-        } else {
-            headers = baos.toString();
+    /**
+     * Reads the {@code header-part} of the current {@code encapsulation}, and adds the headers to the given object.
+     * <p>
+     * Unlike {@link #readHeaders()}, this doesn't decode the {@code header-part} into an intermediate string. The headers are tokenized directly in the
+     * buffer, which avoids most of the allocations for typical headers.
+     * </p>
+     *
+     * @param headers The object, to which the headers are being added.
+     * @return The {@code headers} object.
+     * @throws FileUploadSizeException  if the bytes read from the stream exceeded the size limits.
+     * @throws MalformedStreamException if the stream ends unexpectedly.
+     * @since 2.0
+     */
+    public FileItemHeadersImpl readHeaders(final FileItemHeadersImpl headers) throws FileUploadSizeException, MalformedStreamException {
+        readHeaderPart();
+        try {
+            HeaderTokenizer.tokenize(headerPart, headerPartOffset, headerPartLength, headerCharset, headers);
+        } finally {
+            headerPart = null;
         }
-
         return headers;
     }
 
@@ -867,6 +1142,17 @@ public class MultipartStream {
         computeBoundaryTable();
     }
 
+    /**
+     * Sets the algorithm, which is used for locating the boundary. All algorithms produce the same results, they differ only in speed.
+     *
+     * @param boundarySearch The boundary search algorithm, or null for the {@link BoundarySearch#getDefault() default}.
+     */
+    public void setBoundarySearch(final BoundarySearch boundarySearch) {
+        this.boundarySearch = boundarySearch == null ? BoundarySearch.getDefault() : boundarySearch;
+        this.boundaryFinder = this.boundarySearch.newFinder();
+        computeBoundaryTable();
+    }
+
     /**
      * Sets the character encoding to be used when reading the headers of individual parts. When not specified, or {@code null}, the platform default
      * encoding is used.
@@ -875,6 +1161,15 @@ public class MultipartStream {
      */
     public void setHeaderEncoding(final String encoding) {
         headerEncoding = encoding;
+        headerCharset = Charset.defaultCharset();
+        if (encoding != null) {
+            try {
+                headerCharset = Charset.forName(encoding);
+            } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+                // Fall back to platform default if specified encoding is not
+                // supported.
+            }
+        }
     }
 
     /**
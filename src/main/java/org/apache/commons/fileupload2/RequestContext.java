@@ -18,6 +18,7 @@ package org.apache.commons.fileupload2;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Abstracts access to the request information needed for file uploads.
@@ -28,6 +29,19 @@ import java.io.InputStream;
  */
 public interface RequestContext {
 
+    /**
+     * Gets a channel for reading the request. If a channel is available, then it is used instead of the {@link #getInputStream() input stream}, which
+     * avoids the heap copy, that many {@code InputStream} adapters perform. The default implementation returns null, so that the request is read from
+     * the input stream. Implementations, whose request is backed by a channel, should override this.
+     *
+     * @return A blocking channel for reading the request, or null, if the request can only be read as an input stream.
+     * @throws IOException if a problem occurs.
+     * @since 2.0
+     */
+    default ReadableByteChannel getChannel() throws IOException {
+        return null;
+    }
+
     /**
      * Gets the character encoding for the request.
      *
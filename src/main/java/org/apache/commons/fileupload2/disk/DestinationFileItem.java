@@ -0,0 +1,576 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.disk;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.apache.commons.fileupload2.AbstractFileUpload;
+import org.apache.commons.fileupload2.FileItem;
+import org.apache.commons.fileupload2.FileItemFactory;
+import org.apache.commons.fileupload2.FileItemHeaders;
+import org.apache.commons.fileupload2.ParameterParser;
+
+/**
+ * A {@link FileItem}, which is written directly to the path, that is resolved by a {@link DestinationFileItemFactory.PathResolver}. The path is
+ * resolved, when {@link #getOutputStream()} is invoked. If the resolver returns null, then the item is created by the fallback factory, and all methods
+ * are delegated to that item.
+ *
+ * @see DestinationFileItemFactory
+ * @since 2.0
+ */
+public class DestinationFileItem implements FileItem {
+
+    /**
+     * An output stream, which writes to a file channel, and counts the bytes written.
+     */
+    private final class DestinationOutputStream extends OutputStream {
+
+        /**
+         * The channel, which is being written.
+         */
+        private final FileChannel channel;
+
+        /**
+         * The size, to which the file has been extended, or -1.
+         */
+        private final long preallocatedSize;
+
+        /**
+         * The number of bytes written.
+         */
+        private long count;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param channel          The channel, which is being written.
+         * @param preallocatedSize The size, to which the file has been extended, or -1.
+         */
+        DestinationOutputStream(final FileChannel channel, final long preallocatedSize) {
+            this.channel = channel;
+            this.preallocatedSize = preallocatedSize;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                if (preallocatedSize > count) {
+                    channel.truncate(count);
+                }
+            } finally {
+                channel.close();
+            }
+            size = count;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            count += len;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+    }
+
+    /**
+     * The name of the form field, as provided by the browser.
+     */
+    private String fieldName;
+
+    /**
+     * The content type passed by the browser, or {@code null} if not defined.
+     */
+    private final String contentType;
+
+    /**
+     * Whether or not this item is a simple form field.
+     */
+    private boolean isFormField;
+
+    /**
+     * The original file name in the user's file system.
+     */
+    private final String fileName;
+
+    /**
+     * The resolver, which provides the destination.
+     */
+    private final DestinationFileItemFactory.PathResolver pathResolver;
+
+    /**
+     * The factory, which creates the item, if the resolver doesn't provide a destination.
+     */
+    private final FileItemFactory fallbackFactory;
+
+    /**
+     * The maximum number of bytes, which are preallocated, or -1, if the file isn't preallocated.
+     */
+    private final long preallocationLimit;
+
+    /**
+     * Whether an existing file at the destination is overwritten.
+     */
+    private final boolean overwrite;
+
+    /**
+     * The file items headers.
+     */
+    private FileItemHeaders headers;
+
+    /**
+     * The resolved destination, or null.
+     */
+    private Path path;
+
+    /**
+     * The item, which has been created by the fallback factory, or null.
+     */
+    private FileItem delegate;
+
+    /**
+     * The size of the item, in bytes, or -1, if the contents haven't been written completely.
+     */
+    private long size = -1;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param fieldName          The name of the form field.
+     * @param contentType        The content type passed by the browser or {@code null} if not specified.
+     * @param isFormField        Whether or not this item is a plain form field, as opposed to a file upload.
+     * @param fileName           The original file name in the user's file system, or {@code null} if not specified.
+     * @param pathResolver       The resolver, which provides the destination.
+     * @param fallbackFactory    The factory, which creates the item, if the resolver doesn't provide a destination.
+     * @param preallocationLimit The maximum number of bytes, to which the file is extended, before the contents are written, or -1, if the file
+     *                           isn't preallocated.
+     * @param overwrite          Whether an existing file at the destination is overwritten. If not, then {@link #getOutputStream()} fails, if the
+     *                           file exists.
+     */
+    public DestinationFileItem(final String fieldName, final String contentType, final boolean isFormField, final String fileName,
+            final DestinationFileItemFactory.PathResolver pathResolver, final FileItemFactory fallbackFactory, final long preallocationLimit,
+            final boolean overwrite) {
+        this.fieldName = fieldName;
+        this.contentType = contentType;
+        this.isFormField = isFormField;
+        this.fileName = fileName;
+        this.pathResolver = pathResolver;
+        this.fallbackFactory = fallbackFactory;
+        this.preallocationLimit = preallocationLimit;
+        this.overwrite = overwrite;
+    }
+
+    /**
+     * Deletes the file at the resolved destination, or the storage of the fallback item.
+     */
+    @Override
+    public void delete() {
+        if (delegate != null) {
+            delegate.delete();
+        } else if (path != null) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Cannot delete " + path, e);
+            }
+        }
+    }
+
+    /**
+     * Gets the contents of the item as an array of bytes.
+     *
+     * @return The contents of the item.
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    @Override
+    public byte[] get() throws UncheckedIOException {
+        if (delegate != null) {
+            return delegate.get();
+        }
+        if (path == null) {
+            return new byte[0];
+        }
+        try {
+            return Files.readAllBytes(path);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Gets the contents of the item as a read-only buffer. For items at a resolved destination, this is a view of the memory-mapped file, which is
+     * mapped anew by every call. A mapping can't be released explicitly: It stays valid, until the buffer has been garbage collected. On some
+     * platforms, notably Windows, a mapped file can't be deleted, or moved, until then, so {@link #delete()}, and {@link #write(File)} may fail, or
+     * leave the file behind. Use {@link #get()}, or {@link #getInputStream()}, if the file is to be moved afterwards.
+     *
+     * @return The contents of the item.
+     * @throws UncheckedIOException if an I/O error occurs, or the file is too large for a single buffer
+     */
+    @Override
+    public ByteBuffer getByteBuffer() throws UncheckedIOException {
+        if (delegate != null) {
+            return delegate.getByteBuffer();
+        }
+        if (path == null) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("The file " + path + " is too large for a single buffer");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Gets the content charset passed by the agent or {@code null} if not defined.
+     *
+     * @return The content charset passed by the agent or {@code null} if not defined.
+     */
+    public String getCharSet() {
+        final ParameterParser parser = new ParameterParser();
+        parser.setLowerCaseNames(true);
+        // Parameter parser can handle null input
+        final Map<String, String> params = parser.parse(getContentType(), ';');
+        return params.get("charset");
+    }
+
+    /**
+     * Gets the content type passed by the agent or {@code null} if not defined.
+     *
+     * @return The content type passed by the agent or {@code null} if not defined.
+     */
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Gets the item, which has been created by the fallback factory.
+     *
+     * @return The fallback item, or null, if the item is stored at a resolved destination, or its contents haven't been written yet.
+     */
+    public FileItem getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Gets the name of the field in the multipart form corresponding to this file item.
+     *
+     * @return The name of the form field.
+     */
+    @Override
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * Gets the file item headers.
+     *
+     * @return The file items headers.
+     */
+    @Override
+    public FileItemHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Gets an {@link InputStream InputStream} that can be used to retrieve the contents of the item.
+     *
+     * @return An {@link InputStream InputStream} that can be used to retrieve the contents of the item.
+     * @throws IOException if an error occurs.
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (delegate != null) {
+            return delegate.getInputStream();
+        }
+        if (path == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return Files.newInputStream(path);
+    }
+
+    /**
+     * Gets the original file name in the client's file system.
+     *
+     * @return The original file name in the client's file system.
+     * @throws org.apache.commons.fileupload2.InvalidFileNameException The file name contains a NUL character, which might be an indicator of a security
+     *                                                                  attack.
+     */
+    @Override
+    public String getName() {
+        return DiskFileItem.checkFileName(fileName);
+    }
+
+    /**
+     * Resolves the destination, and returns an {@link OutputStream OutputStream}, which writes to it. If the resolver returns null, then the item is
+     * created by the fallback factory, and its output stream is returned.
+     *
+     * @return An {@link OutputStream OutputStream} that can be used for storing the contents of the item.
+     * @throws java.nio.file.FileAlreadyExistsException A file exists at the destination, and overwriting is disabled.
+     * @throws IOException if an error occurs.
+     * @throws IllegalStateException The output stream has already been requested.
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (delegate != null || path != null) {
+            throw new IllegalStateException("The output stream of " + fieldName + " has already been requested.");
+        }
+        final Path destination = pathResolver.resolve(fieldName, fileName, headers);
+        if (destination == null) {
+            delegate = fallbackFactory.createItem(fieldName, contentType, isFormField, fileName);
+            delegate.setHeaders(headers);
+            return delegate.getOutputStream();
+        }
+        final FileChannel channel = overwrite
+                ? FileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(destination, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+        path = destination;
+        long preallocatedSize = -1;
+        if (preallocationLimit > 0) {
+            // The announced size is supplied by the client, so it must not exceed the limit.
+            final long contentLength = Math.min(getContentLength(), preallocationLimit);
+            if (contentLength > 0) {
+                try {
+                    // Writing the last byte extends the file, without writing the bytes before.
+                    channel.write(ByteBuffer.allocate(1), contentLength - 1);
+                } catch (final IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                preallocatedSize = contentLength;
+            }
+        }
+        return new DestinationOutputStream(channel, preallocatedSize);
+    }
+
+    /**
+     * Gets the resolved destination.
+     *
+     * @return The path, to which the item has been written, or null, if the item is stored by the fallback factory, or its contents haven't been
+     *         written yet.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Gets the size of the item.
+     *
+     * @return The size of the item, in bytes.
+     */
+    @Override
+    public long getSize() {
+        if (delegate != null) {
+            return delegate.getSize();
+        }
+        if (size >= 0) {
+            return size;
+        }
+        if (path == null) {
+            return 0;
+        }
+        try {
+            return Files.size(path);
+        } catch (final IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Gets the contents of the item as a String, using the charset from the content type, or the default character encoding.
+     *
+     * @return The contents of the item, as a string.
+     */
+    @Override
+    public String getString() {
+        try {
+            final String charset = getCharSet();
+            return getString(charset == null ? DiskFileItem.DEFAULT_CHARSET : charset);
+        } catch (final IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Gets the contents of the item as a String, using the specified encoding.
+     *
+     * @param charset The charset to use.
+     * @return The contents of the item, as a string.
+     * @throws UnsupportedEncodingException if the requested character encoding is not available.
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public String getString(final String charset) throws UnsupportedEncodingException, IOException {
+        final Charset cs;
+        try {
+            cs = Charset.forName(charset);
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(charset);
+        }
+        try {
+            return new String(get(), cs);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Determines whether or not a {@code FileItem} instance represents a simple form field.
+     *
+     * @return {@code true} if the instance represents a simple form field; {@code false} if it represents an uploaded file.
+     */
+    @Override
+    public boolean isFormField() {
+        return isFormField;
+    }
+
+    /**
+     * Tests, whether the item is kept in memory. Items at a resolved destination never are.
+     *
+     * @return True, if the fallback item is kept in memory.
+     */
+    @Override
+    public boolean isInMemory() {
+        return delegate != null && delegate.isInMemory();
+    }
+
+    /**
+     * Sets the field name used to reference this file item.
+     *
+     * @param fieldName The name of the form field.
+     */
+    @Override
+    public void setFieldName(final String fieldName) {
+        this.fieldName = fieldName;
+        if (delegate != null) {
+            delegate.setFieldName(fieldName);
+        }
+    }
+
+    /**
+     * Specifies whether or not a {@code FileItem} instance represents a simple form field.
+     *
+     * @param state {@code true} if the instance represents a simple form field; {@code false} if it represents an uploaded file.
+     */
+    @Override
+    public void setFormField(final boolean state) {
+        isFormField = state;
+        if (delegate != null) {
+            delegate.setFormField(state);
+        }
+    }
+
+    /**
+     * Sets the file item headers. The headers must be set before {@link #getOutputStream()} is invoked, if the resolver is supposed to see them.
+     *
+     * @param headers The file items headers.
+     */
+    @Override
+    public void setHeaders(final FileItemHeaders headers) {
+        this.headers = headers;
+        if (delegate != null) {
+            delegate.setHeaders(headers);
+        }
+    }
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return a string representation of this object.
+     */
+    @Override
+    public String toString() {
+        return String.format("name=%s, Path=%s, size=%s bytes, isFormField=%s, FieldName=%s", getName(), getPath(), getSize(), isFormField(),
+                getFieldName());
+    }
+
+    /**
+     * Writes the item to the given file. Items at a resolved destination are moved, and the given file becomes the new destination. This is a no-op, if
+     * the file is the destination already.
+     *
+     * @param file The {@code File} into which the uploaded item should be stored.
+     * @throws IOException if an error occurs.
+     */
+    @Override
+    public void write(final File file) throws IOException {
+        if (delegate != null) {
+            delegate.write(file);
+            return;
+        }
+        final Path target = file.toPath();
+        if (path == null) {
+            Files.write(target, new byte[0]);
+            return;
+        }
+        if (Files.exists(target) && Files.isSameFile(path, target)) {
+            return;
+        }
+        Files.move(path, target, StandardCopyOption.REPLACE_EXISTING);
+        path = target;
+    }
+
+    /**
+     * Gets the announced size of the item from its {@code Content-Length} header.
+     *
+     * @return The announced size, or -1, if unknown.
+     */
+    private long getContentLength() {
+        if (headers == null) {
+            return -1;
+        }
+        final String value = headers.getHeader(AbstractFileUpload.CONTENT_LENGTH);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.disk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.apache.commons.fileupload2.FileItem;
+import org.apache.commons.fileupload2.FileItemFactory;
+import org.apache.commons.fileupload2.FileItemHeaders;
+
+/**
+ * A {@link FileItemFactory}, which streams uploaded items directly to their final destination.
+ * <p>
+ * The {@link DiskFileItemFactory} writes large items to a temporary file, which is moved to the final destination by
+ * {@link DiskFileItem#write(java.io.File)}. If the destination is known from the field name, the file name, or the headers of a part, then that extra
+ * step is unnecessary: This factory asks a {@link PathResolver} for the destination of every part, when the part's contents are about to be written, and
+ * writes them straight to the resolved path. Parts, for which the resolver returns null, are handed to a fallback factory, which is a
+ * {@link DiskFileItemFactory} by default.
+ * </p>
+ * <p>
+ * Existing files are never overwritten, unless {@link #setOverwrite(boolean) enabled}: If a file exists at a resolved path, then parsing the request
+ * fails with a {@link java.nio.file.FileAlreadyExistsException}, and the file is left untouched. If parsing the request fails, then the items are
+ * deleted, which includes the files at the resolved paths, that have been written by this request.
+ * </p>
+ *
+ * @see DestinationFileItem
+ * @since 2.0
+ */
+public class DestinationFileItemFactory implements FileItemFactory {
+
+    /**
+     * Resolves the destination of an uploaded item.
+     */
+    @FunctionalInterface
+    public interface PathResolver {
+
+        /**
+         * Resolves the destination of an uploaded item. The file at the returned path is created, and receives the item's contents. An existing file is
+         * replaced only, if the factory {@link DestinationFileItemFactory#setOverwrite(boolean) allows it}.
+         *
+         * @param fieldName The name of the form field.
+         * @param fileName  The name of the uploaded file, as supplied by the client, or null.
+         * @param headers   The headers of the part, or null, if the item has been created outside of a request.
+         * @return The path, to which the item is written, or null, to store the item by the fallback factory.
+         * @throws IOException The destination can't be resolved, which aborts parsing the request.
+         */
+        Path resolve(String fieldName, String fileName, FileItemHeaders headers) throws IOException;
+
+    }
+
+    /**
+     * The resolver, which provides the destinations of new items.
+     */
+    private final PathResolver pathResolver;
+
+    /**
+     * The factory, which creates items without a resolved destination.
+     */
+    private final FileItemFactory fallbackFactory;
+
+    /**
+     * The maximum number of bytes, which are preallocated, or -1, if files aren't preallocated.
+     */
+    private long preallocationLimit = -1;
+
+    /**
+     * Whether existing files at the resolved paths are overwritten.
+     */
+    private boolean overwrite;
+
+    /**
+     * Constructs a new instance, which stores items without a resolved destination by a {@link DiskFileItemFactory} with default settings.
+     *
+     * @param pathResolver The resolver, which provides the destinations of new items.
+     */
+    public DestinationFileItemFactory(final PathResolver pathResolver) {
+        this(pathResolver, new DiskFileItemFactory());
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param pathResolver    The resolver, which provides the destinations of new items.
+     * @param fallbackFactory The factory, which creates items without a resolved destination.
+     */
+    public DestinationFileItemFactory(final PathResolver pathResolver, final FileItemFactory fallbackFactory) {
+        this.pathResolver = Objects.requireNonNull(pathResolver, "pathResolver");
+        this.fallbackFactory = Objects.requireNonNull(fallbackFactory, "fallbackFactory");
+    }
+
+    /**
+     * Creates a new {@link DestinationFileItem} instance from the supplied parameters. The destination is resolved later on, when the contents are about
+     * to be written, so that the resolver can inspect the part's headers.
+     *
+     * @param fieldName   The name of the form field.
+     * @param contentType The content type of the form field.
+     * @param isFormField {@code true} if this is a plain form field; {@code false} otherwise.
+     * @param fileName    The name of the uploaded file, if any, as supplied by the browser or other client.
+     * @return The newly created file item.
+     */
+    @Override
+    public FileItem createItem(final String fieldName, final String contentType, final boolean isFormField, final String fileName) {
+        return new DestinationFileItem(fieldName, contentType, isFormField, fileName, pathResolver, fallbackFactory, preallocationLimit, overwrite);
+    }
+
+    /**
+     * Gets the factory, which creates items without a resolved destination.
+     *
+     * @return The fallback factory.
+     */
+    public FileItemFactory getFallbackFactory() {
+        return fallbackFactory;
+    }
+
+    /**
+     * Gets the resolver, which provides the destinations of new items.
+     *
+     * @return The path resolver.
+     */
+    public PathResolver getPathResolver() {
+        return pathResolver;
+    }
+
+    /**
+     * Gets the maximum number of bytes, which are preallocated.
+     *
+     * @return The preallocation limit, or -1, if files aren't preallocated.
+     * @see #setPreallocationLimit(long)
+     */
+    public long getPreallocationLimit() {
+        return preallocationLimit;
+    }
+
+    /**
+     * Tests, whether existing files at the resolved paths are overwritten.
+     *
+     * @return True, if existing files are overwritten.
+     * @see #setOverwrite(boolean)
+     */
+    public boolean isOverwrite() {
+        return overwrite;
+    }
+
+    /**
+     * Sets, whether existing files at the resolved paths are overwritten. If so, then an existing file is truncated, as soon as the item's contents
+     * are about to be written, and it is deleted, if parsing the request fails afterwards. The default is false, in which case an existing file causes
+     * parsing to fail, and is left untouched.
+     *
+     * @param overwrite True, if existing files are overwritten.
+     */
+    public void setOverwrite(final boolean overwrite) {
+        this.overwrite = overwrite;
+    }
+
+    /**
+     * Sets the maximum number of bytes, to which files are extended, before the contents are written. The size is taken from the part's
+     * {@code Content-Length} header, if any, and clamped to this limit, because the header is supplied by the client. This allows the file system to
+     * allocate the file in one go, rather than growing it with every write. If fewer bytes arrive, then the file is truncated to the actual size.
+     * <p>
+     * The limit should be the {@link org.apache.commons.fileupload2.AbstractFileUpload#setFileSizeMax(long) maximum file size}, or the
+     * {@link org.apache.commons.fileupload2.AbstractFileUpload#setSizeMax(long) maximum request size} of the upload, so that preallocation never
+     * exceeds the space, which a valid request may occupy anyway.
+     * </p>
+     *
+     * @param preallocationLimit The preallocation limit, or -1 (default), if files aren't preallocated.
+     * @throws IllegalArgumentException The limit is less than -1.
+     */
+    public void setPreallocationLimit(final long preallocationLimit) {
+        if (preallocationLimit < -1) {
+            throw new IllegalArgumentException("Invalid preallocation limit: " + preallocationLimit);
+        }
+        this.preallocationLimit = preallocationLimit;
+    }
+
+}
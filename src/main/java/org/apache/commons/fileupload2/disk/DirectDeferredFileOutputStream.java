@@ -0,0 +1,435 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.commons.fileupload2.util.ByteBufferChannel;
+import org.apache.commons.fileupload2.util.ByteBufferInputStream;
+import org.apache.commons.fileupload2.util.DirectBufferPool;
+import org.apache.commons.fileupload2.util.MemoryBudget;
+import org.apache.commons.io.input.ClosedInputStream;
+
+/**
+ * A {@link LazyDeferredFileOutputStream}, which keeps its data in a direct buffer from a {@link DirectBufferPool}, rather than on the heap, until the
+ * threshold is exceeded. The buffer grows by moving to a buffer of at least twice the size, so the data is always contiguous, and can be exposed as a read-only view.
+ * A {@link MemoryBudget.Reservation} holds the capacity of the buffer, rather than the number of bytes written.
+ * <p>
+ * A pooled buffer is reused by other requests, once it is returned to the pool, so it must not be returned, while anybody can still read it. Streams,
+ * and channels, which read the buffer, hold a reference, which is dropped, when they are closed. The buffer is returned to the pool, when the last
+ * reference is dropped. Views, which are handed out by {@link #getByteBuffer()}, can't be tracked: A buffer, of which a view has been handed out, is
+ * never returned to the pool, but left to the garbage collector.
+ * </p>
+ */
+final class DirectDeferredFileOutputStream extends LazyDeferredFileOutputStream {
+
+    /**
+     * A buffer from the pool, and the number of references to it.
+     */
+    private final class Contents {
+
+        /**
+         * The pooled buffer.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * The number of references: One, which is held by the stream, while the buffer holds its data, and one per open reader.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * Whether a view of the buffer has been handed out, which can't be tracked.
+         */
+        private volatile boolean escaped;
+
+        /**
+         * Creates a new instance, which is referenced by the stream.
+         *
+         * @param buffer The pooled buffer.
+         */
+        Contents(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Drops a reference, and returns the buffer to the pool, if it was the last one, and no view has escaped.
+         */
+        void release() {
+            if (references.decrementAndGet() == 0 && !escaped) {
+                pool.release(buffer);
+            }
+        }
+
+        /**
+         * Adds a reference, unless the buffer has already been released.
+         *
+         * @return True, if the reference has been added.
+         */
+        boolean retain() {
+            for (;;) {
+                final int current = references.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Creates a read-only view of the data.
+         *
+         * @return The data, from position zero to the number of bytes written.
+         */
+        ByteBuffer view() {
+            final ByteBuffer view = buffer.duplicate();
+            view.flip();
+            return view.asReadOnlyBuffer();
+        }
+
+    }
+
+    /**
+     * An input stream, which holds a reference to the buffer, until it is closed.
+     */
+    private static final class ContentsInputStream extends ByteBufferInputStream {
+
+        /**
+         * The contents, which are being read.
+         */
+        private final Contents contents;
+
+        /**
+         * Whether the stream has been closed.
+         */
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * Creates a new instance.
+         *
+         * @param contents The contents, which have been retained for this stream.
+         */
+        ContentsInputStream(final Contents contents) {
+            super(contents.view());
+            this.contents = contents;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                contents.release();
+            }
+        }
+
+    }
+
+    /**
+     * A channel, which holds a reference to the buffer, until it is closed.
+     */
+    private static final class ContentsChannel extends ByteBufferChannel {
+
+        /**
+         * The contents, which are being read.
+         */
+        private final Contents contents;
+
+        /**
+         * Whether the channel has been closed.
+         */
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * Creates a new instance.
+         *
+         * @param contents The contents, which have been retained for this channel.
+         */
+        ContentsChannel(final Contents contents) {
+            super(contents.view());
+            this.contents = contents;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            if (closed.compareAndSet(false, true)) {
+                contents.release();
+            }
+        }
+
+    }
+
+    /**
+     * The pool, from which the buffer is borrowed.
+     */
+    private final DirectBufferPool pool;
+
+    /**
+     * The buffer, which holds the data, while it is in memory, or null.
+     */
+    private Contents contents;
+
+    /**
+     * The stream, which writes to the buffer.
+     */
+    private final OutputStream memoryStream = new OutputStream() {
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            ensureCapacity(len).put(b, off, len);
+        }
+
+        @Override
+        public void write(final int b) {
+            ensureCapacity(1).put((byte) b);
+        }
+    };
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threshold    The number of bytes, at which the data is moved to the file.
+     * @param fileSupplier Provides the file, which receives the data, once the threshold has been exceeded.
+     * @param pool         The pool, from which the buffer is borrowed.
+     * @param reservation  The reservation, which holds the memory of the data, or null.
+     */
+    DirectDeferredFileOutputStream(final int threshold, final Supplier<File> fileSupplier, final DirectBufferPool pool,
+            final MemoryBudget.Reservation reservation) {
+        super(threshold, fileSupplier, reservation);
+        this.pool = pool;
+    }
+
+    /**
+     * Retains the contents for a reader.
+     *
+     * @return The retained contents, which must be released by the reader, or null, if the data isn't in memory, or empty.
+     */
+    private Contents retain() {
+        final Contents current = contents;
+        if (!isInMemory() || current == null || !current.retain()) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Decodes the data.
+     *
+     * @param charset The charset, which is used for decoding.
+     * @return The decoded data.
+     */
+    String decode(final Charset charset) {
+        final Contents current = retain();
+        if (current == null) {
+            return "";
+        }
+        try {
+            return charset.decode(current.view()).toString();
+        } finally {
+            current.release();
+        }
+    }
+
+    /**
+     * Makes room for the given number of bytes. This is a no-op, if {@link #reserve(int)} has made room already.
+     *
+     * @param len The number of bytes, which are about to be written.
+     * @return The buffer, which has room for {@code len} bytes.
+     */
+    private ByteBuffer ensureCapacity(final int len) {
+        if (contents == null || contents.buffer.remaining() < len) {
+            grow(pool.acquire(getNewCapacity(len)));
+        }
+        return contents.buffer;
+    }
+
+    /**
+     * Gets the capacity of a buffer, which has room for the given number of bytes. The buffer grows geometrically, up to the threshold, so that
+     * the data is copied a logarithmic number of times, also above the pool's maximum buffer size, where buffers are allocated with the exact
+     * requested size.
+     *
+     * @param len The number of bytes, which are about to be written.
+     * @return The minimum capacity of the new buffer.
+     */
+    private int getNewCapacity(final int len) {
+        if (contents == null) {
+            return len;
+        }
+        final int required = contents.buffer.position() + len;
+        return Math.max(required, (int) Math.min(getThreshold(), 2L * contents.buffer.capacity()));
+    }
+
+    /**
+     * Moves the data into the given buffer, which replaces the current one.
+     *
+     * @param larger The new buffer.
+     */
+    private void grow(final ByteBuffer larger) {
+        if (contents != null) {
+            final ByteBuffer old = contents.buffer.duplicate();
+            old.flip();
+            larger.put(old);
+            contents.release();
+        }
+        contents = new Contents(larger);
+    }
+
+    /**
+     * Reserves the capacity of the buffer, rather than the written bytes, because the whole buffer is held, while the data is in memory. If
+     * the budget doesn't cover a larger buffer, then it is returned to the pool, and the data moves to the file.
+     *
+     * @param count The number of bytes, which are about to be written.
+     * @return False, if the budget is exhausted.
+     */
+    @Override
+    boolean reserve(final int count) {
+        if (contents != null && contents.buffer.remaining() >= count) {
+            return true;
+        }
+        final ByteBuffer larger = pool.acquire(getNewCapacity(count));
+        final int capacity = contents == null ? 0 : contents.buffer.capacity();
+        if (!super.reserve(larger.capacity() - capacity)) {
+            pool.release(larger);
+            return false;
+        }
+        grow(larger);
+        return true;
+    }
+
+    /**
+     * Gets a read-only view of the data. The view can't be tracked, so the buffer won't be returned to the pool afterwards. Use
+     * {@link #toMemoryInputStream()}, or {@link #newChannel()}, if possible.
+     *
+     * @return The data, or null, if it isn't in memory.
+     */
+    ByteBuffer getByteBuffer() {
+        if (!isInMemory()) {
+            return null;
+        }
+        final Contents current = contents;
+        if (current == null) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        current.escaped = true;
+        return current.view();
+    }
+
+    /**
+     * Gets a copy of the data.
+     *
+     * @return The data, or null, if it isn't in memory.
+     */
+    @Override
+    public byte[] getData() {
+        if (!isInMemory()) {
+            return null;
+        }
+        final Contents current = retain();
+        if (current == null) {
+            return new byte[0];
+        }
+        try {
+            final ByteBuffer view = current.view();
+            final byte[] data = new byte[view.remaining()];
+            view.get(data);
+            return data;
+        } finally {
+            current.release();
+        }
+    }
+
+    @Override
+    protected OutputStream getMemoryStream() {
+        return memoryStream;
+    }
+
+    /**
+     * Opens a channel, which reads the data, and holds a reference to the buffer, until it is closed.
+     *
+     * @return A new channel, which reads the data.
+     */
+    SeekableByteChannel newChannel() {
+        final Contents current = retain();
+        return current == null ? new ByteBufferChannel(ByteBuffer.allocate(0)) : new ContentsChannel(current);
+    }
+
+    /**
+     * Drops the stream's reference to the buffer, which is returned to the pool, once all readers are closed.
+     */
+    @Override
+    protected void releaseMemory() {
+        if (contents != null) {
+            contents.release();
+            contents = null;
+        }
+    }
+
+    /**
+     * Opens a stream, which reads the data, and holds a reference to the buffer, until it is closed.
+     *
+     * @return A new stream, which reads the data.
+     */
+    @Override
+    protected InputStream toMemoryInputStream() {
+        final Contents current = retain();
+        return current == null ? ClosedInputStream.CLOSED_INPUT_STREAM : new ContentsInputStream(current);
+    }
+
+    @Override
+    protected void writeMemoryTo(final FileChannel channel) throws IOException {
+        writeTo(channel);
+    }
+
+    @Override
+    protected void writeMemoryTo(final OutputStream outputStream) throws IOException {
+        writeTo(Channels.newChannel(outputStream));
+    }
+
+    /**
+     * Writes the data to the given channel, without copying it.
+     *
+     * @param channel The channel, to which the data is written.
+     * @throws IOException Writing the data has failed.
+     */
+    void writeTo(final WritableByteChannel channel) throws IOException {
+        final Contents current = contents;
+        if (current == null || !current.retain()) {
+            return;
+        }
+        try {
+            final ByteBuffer view = current.view();
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+        } finally {
+            current.release();
+        }
+    }
+
+}
@@ -18,14 +18,29 @@ package org.apache.commons.fileupload2.disk;
 
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -35,9 +50,12 @@ import org.apache.commons.fileupload2.FileItemHeaders;
 import org.apache.commons.fileupload2.FileUploadException;
 import org.apache.commons.fileupload2.InvalidFileNameException;
 import org.apache.commons.fileupload2.ParameterParser;
+import org.apache.commons.fileupload2.util.ByteBufferChannel;
+import org.apache.commons.fileupload2.util.DirectBufferPool;
+import org.apache.commons.fileupload2.util.Digester;
+import org.apache.commons.fileupload2.util.MemoryBudget;
+import org.apache.commons.io.FileCleaningTracker;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.DeferredFileOutputStream;
 
 /**
  * The default implementation of the
@@ -91,23 +109,72 @@ public class DiskFileItem implements FileItem {
      */
     private static final AtomicInteger COUNTER = new AtomicInteger(0);
 
+    /**
+     * The maximum size of a single memory mapping.
+     */
+    private static final long MAPPING_SIZE_MAX = Integer.MAX_VALUE;
+
+    /**
+     * The prefix of temporary file names.
+     */
+    private static final String TEMP_FILE_PREFIX = "upload_" + UID + "_";
+
+    /**
+     * The suffix of temporary file names.
+     */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * The number of digits, to which ids are padded with zeros.
+     */
+    private static final int ID_DIGITS = 8;
+
+    /**
+     * The smallest id, which doesn't fit into {@link #ID_DIGITS} digits.
+     */
+    private static final int ID_LIMIT = 100000000;
+
+    /**
+     * The radix of ids.
+     */
+    private static final int ID_RADIX = 10;
+
+    /**
+     * The name of a temporary file with id 0, which is copied and
+     * filled in by {@link #getTempFileName(int)}.
+     */
+    private static final char[] TEMP_FILE_NAME_TEMPLATE = (TEMP_FILE_PREFIX + "00000000" + TEMP_FILE_SUFFIX).toCharArray();
+
     /**
      * Returns an identifier that is unique within the class loader used to
      * load this class, but does not have random-like appearance.
      *
-     * @return A String with the non-random looking instance identifier.
+     * @return The non-random looking instance identifier.
      */
-    private static String getUniqueId() {
-        final int limit = 100000000;
-        final int current = COUNTER.getAndIncrement();
-        String id = Integer.toString(current);
+    static int nextUniqueId() {
+        return COUNTER.getAndIncrement();
+    }
 
-        // If you manage to get more than 100 million of ids, you'll
-        // start getting ids longer than 8 characters.
-        if (current < limit) {
-            id = ("00000000" + id).substring(id.length());
+    /**
+     * Returns the name of the temporary file with the given id. The id
+     * is written into a preformatted template, so that this costs a
+     * single string allocation.
+     *
+     * @param id The id, as returned by {@link #nextUniqueId()}.
+     * @return The file name, with the id padded to eight digits.
+     */
+    static String getTempFileName(final int id) {
+        if (id < 0 || id >= ID_LIMIT) {
+            // If you manage to get more than 100 million of ids, you'll
+            // start getting ids longer than 8 characters.
+            return TEMP_FILE_PREFIX + id + TEMP_FILE_SUFFIX;
+        }
+        final char[] chars = TEMP_FILE_NAME_TEMPLATE.clone();
+        int pos = TEMP_FILE_PREFIX.length() + ID_DIGITS;
+        for (int rest = id; rest > 0; rest /= ID_RADIX) {
+            chars[--pos] = (char) ('0' + rest % ID_RADIX);
         }
-        return id;
+        return new String(chars);
     }
 
     /**
@@ -152,10 +219,69 @@ public class DiskFileItem implements FileItem {
      */
     private byte[] cachedContent;
 
+    /**
+     * Contents of the temporary file, once they have been read by {@link #get()}.
+     * The reference is soft, so the garbage collector may reclaim large
+     * contents, in which case the file is read again.
+     */
+    private transient SoftReference<byte[]> cachedFileContent;
+
     /**
      * Output stream for this item.
      */
-    private transient DeferredFileOutputStream dfos;
+    private transient LazyDeferredFileOutputStream dfos;
+
+    /**
+     * The stream, which is returned by {@link #getOutputStream()}. This
+     * is {@link #dfos}, unless digests are computed.
+     */
+    private transient OutputStream outputStream;
+
+    /**
+     * Computes the digests of the contents, or null.
+     */
+    private transient Digester digester;
+
+    /**
+     * The pool, which provides off-heap memory for the contents, or
+     * null, if the contents are kept on the heap.
+     */
+    private transient DirectBufferPool directBufferPool;
+
+    /**
+     * The budget, from which the contents reserve memory, or null.
+     */
+    private transient MemoryBudget memoryBudget;
+
+    /**
+     * The layout, which determines the location of the temporary file,
+     * or null, if it is created in the repository directly.
+     */
+    private transient RepositoryLayout repositoryLayout;
+
+    /**
+     * The service, which deletes the temporary file in the background,
+     * or null, if it is deleted synchronously.
+     */
+    private transient FileDeletionService deletionService;
+
+    /**
+     * The registration of the temporary file with a {@link FileCleaner},
+     * or null.
+     */
+    private transient FileCleaner.Registration cleanerRegistration;
+
+    /**
+     * The cleaner, with which the temporary file is registered, once it
+     * is created, or null.
+     */
+    private transient FileCleaner fileCleaner;
+
+    /**
+     * The tracker, with which the temporary file is registered, once it
+     * is created, or null.
+     */
+    private transient FileCleaningTracker fileCleaningTracker;
 
     /**
      * The temporary file to use.
@@ -204,23 +330,62 @@ public class DiskFileItem implements FileItem {
     /**
      * Deletes the underlying storage for a file item, including deleting any associated temporary disk file.
      * This method can be used to ensure that this is done at an earlier time, thus preserving system resources.
+     * If a {@link #setDeletionService(FileDeletionService) deletion service} is set, then the temporary file is
+     * deleted in the background, and this method returns immediately.
      */
     @Override
     public void delete() {
         cachedContent = null;
+        cachedFileContent = null;
+        if (dfos != null) {
+            // Returns the memory to the pool, and the budget.
+            dfos.release();
+        }
         final File outputFile = getStoreLocation();
-        if (outputFile != null && !isInMemory() && outputFile.exists()) {
+        if (outputFile != null && deletionService != null) {
+            deletionService.delete(outputFile);
+        } else if (outputFile != null && !isInMemory() && outputFile.exists()) {
             if (!outputFile.delete()) {
                 final String desc = "Cannot delete " + outputFile.toString();
                 throw new UncheckedIOException(desc, new IOException(desc));
             }
         }
+        deregister();
+    }
+
+    /**
+     * Determines the temporary file, when the size threshold has been
+     * exceeded, and registers it with the cleaner, and the tracker.
+     *
+     * @return The temporary file.
+     */
+    private File spill() {
+        final File file = getTempFile();
+        if (fileCleaningTracker != null) {
+            fileCleaningTracker.track(file, this);
+        }
+        if (fileCleaner != null) {
+            cleanerRegistration = fileCleaner.register(file, this);
+        }
+        return file;
+    }
+
+    /**
+     * Deregisters the temporary file from the {@link FileCleaner}, because
+     * it has been deleted, or moved.
+     */
+    private void deregister() {
+        if (cleanerRegistration != null) {
+            cleanerRegistration.deregister();
+            cleanerRegistration = null;
+        }
     }
 
     /**
      * Gets the contents of the file as an array of bytes.  If the
      * contents of the file were not yet cached in memory, they will be
-     * loaded from the disk storage and cached.
+     * loaded from the disk storage and cached. Every call returns a new
+     * copy of the cached contents.
      *
      * @return The contents of the file as an array of bytes
      * or {@code null} if the data cannot be read
@@ -228,21 +393,155 @@ public class DiskFileItem implements FileItem {
      */
     @Override
     public byte[] get() throws UncheckedIOException {
+        final DirectDeferredFileOutputStream direct = getDirectContents();
+        if (direct != null) {
+            return direct.getData();
+        }
+        if (isInMemory()) {
+            final ByteBuffer contents = getByteBuffer();
+            final byte[] data = new byte[contents.remaining()];
+            contents.get(data);
+            return data;
+        }
+        return getFileContent().clone();
+    }
+
+    /**
+     * Gets the contents of the temporary file, which are read once, and
+     * cached, until they are reclaimed by the garbage collector, or the
+     * item is written, or deleted.
+     *
+     * @return The cached contents of the temporary file, which must not be modified.
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    private byte[] getFileContent() {
+        final SoftReference<byte[]> ref = cachedFileContent;
+        byte[] data = ref == null ? null : ref.get();
+        if (data == null) {
+            try {
+                data = Files.readAllBytes(dfos.getFile().toPath());
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            cachedFileContent = new SoftReference<>(data);
+        }
+        return data;
+    }
+
+    /**
+     * Gets the contents of the file as a read-only buffer, without
+     * copying them. For items in memory, this is a view of the cached
+     * contents, or of the {@link #setDirectBufferPool(DirectBufferPool)
+     * off-heap memory}. For items on disk, this is a view of the
+     * memory-mapped temporary file, which is mapped anew by every call.
+     * A mapping can't be released explicitly: It stays valid, until the
+     * buffer has been garbage collected. On some platforms, notably
+     * Windows, a mapped file can't be deleted, or moved, until then, so
+     * {@link #delete()}, and {@link #write(File)} may fail, or leave the
+     * file behind. Use {@link #getInputStream()}, or
+     * {@link #getChannel()}, if the item is to be moved afterwards.
+     * Views must not be used after {@link #delete()}.
+     * A view of off-heap memory can't be tracked, so the memory isn't
+     * returned to the pool afterwards, but left to the garbage collector.
+     * Prefer {@link #getInputStream()}, or {@link #getChannel()}, which
+     * release the memory, when they are closed.
+     *
+     * @return The contents of the file.
+     * @throws UncheckedIOException if an I/O error occurs
+     * @since 2.0
+     */
+    @Override
+    public ByteBuffer getByteBuffer() throws UncheckedIOException {
+        final DirectDeferredFileOutputStream direct = getDirectContents();
+        if (direct != null) {
+            return direct.getByteBuffer();
+        }
         if (isInMemory()) {
             if (cachedContent == null && dfos != null) {
                 cachedContent = dfos.getData();
             }
-            return cachedContent != null ? cachedContent.clone() : new byte[0];
+            return ByteBuffer.wrap(cachedContent != null ? cachedContent : new byte[0]).asReadOnlyBuffer();
+        }
+        final ByteBuffer[] buffers = map();
+        if (buffers.length > 1) {
+            throw new UncheckedIOException(new IOException("The file " + dfos.getFile() + " is too large for a single buffer, use getByteBuffers()"));
+        }
+        return buffers.length == 0 ? ByteBuffer.allocate(0).asReadOnlyBuffer() : buffers[0];
+    }
+
+    /**
+     * Gets the off-heap contents, if the item is in memory, and uses a
+     * {@link #setDirectBufferPool(DirectBufferPool) DirectBufferPool}.
+     *
+     * @return The stream, which holds the contents, or null.
+     */
+    private DirectDeferredFileOutputStream getDirectContents() {
+        if (dfos instanceof DirectDeferredFileOutputStream && dfos.isInMemory()) {
+            return (DirectDeferredFileOutputStream) dfos;
         }
+        return null;
+    }
 
-        final byte[] fileData = new byte[(int) getSize()];
+    /**
+     * Gets the contents of the file as a sequence of read-only buffers,
+     * without copying them. Unlike {@link #getByteBuffer()}, this works
+     * for files of any size: Items on disk are memory-mapped in chunks
+     * of up to 2 GiB. Items in memory are returned as a single buffer.
+     * The same constraints as for {@link #getByteBuffer()} apply.
+     *
+     * @return The contents of the file, in order.
+     * @throws UncheckedIOException if an I/O error occurs
+     * @see #getChannel()
+     * @since 2.0
+     */
+    public ByteBuffer[] getByteBuffers() throws UncheckedIOException {
+        if (isInMemory()) {
+            return new ByteBuffer[] {getByteBuffer()};
+        }
+        return map();
+    }
 
-        try (InputStream fis = Files.newInputStream(dfos.getFile().toPath())) {
-            IOUtils.readFully(fis, fileData);
+    /**
+     * Opens a read-only channel, which provides random access to the
+     * contents, without loading them into the heap. For items on disk,
+     * this is a {@link FileChannel} on the temporary file. The caller
+     * must close the channel.
+     *
+     * @return A new channel, which is positioned at the start of the
+     *   contents.
+     * @throws IOException if an error occurs.
+     * @since 2.0
+     */
+    public SeekableByteChannel getChannel() throws IOException {
+        final DirectDeferredFileOutputStream direct = getDirectContents();
+        if (direct != null) {
+            return direct.newChannel();
+        }
+        if (isInMemory()) {
+            return new ByteBufferChannel(getByteBuffer());
+        }
+        return FileChannel.open(dfos.getFile().toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Maps the temporary file into memory. The mappings aren't cached,
+     * because they can't be released before they are garbage collected.
+     *
+     * @return The read-only mappings, in order.
+     * @throws UncheckedIOException if an I/O error occurs
+     */
+    private ByteBuffer[] map() throws UncheckedIOException {
+        try (FileChannel channel = FileChannel.open(dfos.getFile().toPath(), StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            final ByteBuffer[] buffers = new ByteBuffer[(int) ((fileSize + MAPPING_SIZE_MAX - 1) / MAPPING_SIZE_MAX)];
+            for (int i = 0; i < buffers.length; i++) {
+                final long position = i * MAPPING_SIZE_MAX;
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_SIZE_MAX, fileSize - position));
+            }
+            return buffers;
         } catch (final IOException e) {
             throw new UncheckedIOException(e);
         }
-        return fileData;
     }
 
     /**
@@ -282,6 +581,33 @@ public class DiskFileItem implements FileItem {
         return defaultCharset;
     }
 
+    /**
+     * Gets the digest of the contents, which has been computed by the
+     * given algorithm, while the contents were written.
+     *
+     * @param algorithm The algorithm name, as passed to
+     *   {@link #setDigestAlgorithms(String...)}.
+     * @return The digest, or null, if the algorithm hasn't been
+     *   configured.
+     * @see #getDigests()
+     */
+    public byte[] getDigest(final String algorithm) {
+        return digester == null ? null : digester.getDigest(algorithm);
+    }
+
+    /**
+     * Gets the digests of the contents, which have been computed, while
+     * the contents were written. Must not be called, before all contents
+     * have been written.
+     *
+     * @return A map of algorithm names to digests, which is empty, if no
+     *   algorithms have been configured.
+     * @see #setDigestAlgorithms(String...)
+     */
+    public Map<String, byte[]> getDigests() {
+        return digester == null ? Collections.emptyMap() : digester.getDigests();
+    }
+
     /**
      * Gets the name of the field in the multipart form corresponding to
      * this file item.
@@ -318,6 +644,10 @@ public class DiskFileItem implements FileItem {
         if (!isInMemory()) {
             return Files.newInputStream(dfos.getFile().toPath());
         }
+        final DirectDeferredFileOutputStream direct = getDirectContents();
+        if (direct != null) {
+            return direct.toMemoryInputStream();
+        }
 
         if (cachedContent == null) {
             cachedContent = dfos.getData();
@@ -349,10 +679,12 @@ public class DiskFileItem implements FileItem {
     @Override
     public OutputStream getOutputStream() {
         if (dfos == null) {
-            final File outputFile = getTempFile();
-            dfos = new DeferredFileOutputStream(sizeThreshold, outputFile);
+            final MemoryBudget.Reservation reservation = memoryBudget == null ? null : memoryBudget.newReservation(this);
+            dfos = directBufferPool == null ? new LazyDeferredFileOutputStream(sizeThreshold, this::spill, reservation)
+                : new DirectDeferredFileOutputStream(sizeThreshold, this::spill, directBufferPool, reservation);
+            outputStream = digester == null ? dfos : digester.wrap(dfos);
         }
-        return dfos;
+        return outputStream;
     }
 
     /**
@@ -369,7 +701,7 @@ public class DiskFileItem implements FileItem {
             return cachedContent.length;
         }
         if (dfos.isInMemory()) {
-            return dfos.getData().length;
+            return dfos.getByteCount();
         }
         return dfos.getFile().length();
     }
@@ -399,8 +731,8 @@ public class DiskFileItem implements FileItem {
 
     /**
      * Gets the contents of the file as a String, using the default
-     * character encoding.  This method uses {@link #get()} to retrieve the
-     * contents of the file.
+     * character encoding.  Contents in memory are decoded straight
+     * from {@link #getByteBuffer()}, without copying them.
      * <p>
      * <b>TODO</b> Consider making this method throw UnsupportedEncodingException.
      * </p>
@@ -409,12 +741,11 @@ public class DiskFileItem implements FileItem {
     @Override
     public String getString() {
         try {
-            final byte[] rawData = get();
             String charset = getCharSet();
             if (charset == null) {
                 charset = defaultCharset;
             }
-            return new String(rawData, charset);
+            return getString(charset);
         } catch (final IOException e) {
             return "";
         }
@@ -422,8 +753,10 @@ public class DiskFileItem implements FileItem {
 
     /**
      * Gets the contents of the file as a String, using the specified
-     * encoding.  This method uses {@link #get()} to retrieve the
-     * contents of the file.
+     * encoding.  Contents in memory are decoded straight from
+     * {@link #getByteBuffer()}, without copying them. Contents on disk
+     * are read once, and cached like those of {@link #get()}, rather than
+     * mapped, so that the file can still be moved.
      *
      * @param charset The charset to use.
      * @return The contents of the file, as a string.
@@ -433,7 +766,20 @@ public class DiskFileItem implements FileItem {
     @Override
     public String getString(final String charset)
         throws UnsupportedEncodingException, IOException {
-        return new String(get(), charset);
+        final Charset cs;
+        try {
+            cs = Charset.forName(charset);
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(charset);
+        }
+        final DirectDeferredFileOutputStream direct = getDirectContents();
+        if (direct != null) {
+            return direct.decode(cs);
+        }
+        if (isInMemory()) {
+            return cs.decode(getByteBuffer()).toString();
+        }
+        return new String(getFileContent(), cs);
     }
 
     /**
@@ -448,13 +794,14 @@ public class DiskFileItem implements FileItem {
      * @return The {@link java.io.File File} to be used for temporary storage.
      */
     protected File getTempFile() {
-        if (tempFile == null) {
+        if (tempFile == null && repositoryLayout != null) {
+            tempFile = repositoryLayout.newTempFile();
+        } else if (tempFile == null) {
             File tempDir = repository;
             if (tempDir == null) {
                 tempDir = FileUtils.getTempDirectory();
             }
-            final String tempFileName = String.format("upload_%s_%s.tmp", UID, getUniqueId());
-            tempFile = new File(tempDir, tempFileName);
+            tempFile = new File(tempDir, getTempFileName(nextUniqueId()));
         }
         return tempFile;
     }
@@ -497,6 +844,60 @@ public class DiskFileItem implements FileItem {
         defaultCharset = charset;
     }
 
+    /**
+     * Sets the service, which deletes the temporary file in the
+     * background, when {@link #delete()} is invoked.
+     *
+     * @param deletionService The service, or null (default) to delete
+     *   the temporary file synchronously.
+     * @since 2.0
+     */
+    public void setDeletionService(final FileDeletionService deletionService) {
+        this.deletionService = deletionService;
+    }
+
+    /**
+     * Sets the algorithms, which digest the contents, while they are
+     * written to {@link #getOutputStream()}. This saves reading the
+     * contents a second time. Must be called before
+     * {@link #getOutputStream()}.
+     *
+     * @param algorithms The algorithm names, as accepted by
+     *   {@link Digester#Digester(String...)}.
+     * @throws IllegalArgumentException One of the algorithms isn't
+     *   available.
+     * @throws IllegalStateException The output stream has already been
+     *   created.
+     * @since 2.0
+     */
+    public void setDigestAlgorithms(final String... algorithms) {
+        if (dfos != null) {
+            throw new IllegalStateException("The output stream has already been created");
+        }
+        digester = algorithms.length == 0 ? null : new Digester(algorithms);
+    }
+
+    /**
+     * Sets the pool, which provides off-heap memory for the contents,
+     * while they are below the size threshold. This keeps large
+     * thresholds from filling the heap. The memory is returned to the
+     * pool by {@link #delete()}. Must be called before
+     * {@link #getOutputStream()}.
+     *
+     * @param directBufferPool The pool, or null (default) to keep the
+     *   contents on the heap.
+     * @throws IllegalStateException The output stream has already been
+     *   created.
+     * @see #getByteBuffer()
+     * @since 2.0
+     */
+    public void setDirectBufferPool(final DirectBufferPool directBufferPool) {
+        if (dfos != null) {
+            throw new IllegalStateException("The output stream has already been created");
+        }
+        this.directBufferPool = directBufferPool;
+    }
+
     /**
      * Sets the field name used to reference this file item.
      *
@@ -521,6 +922,42 @@ public class DiskFileItem implements FileItem {
         isFormField = state;
     }
 
+    /**
+     * Sets the cleaner, which deletes the temporary file, when this item
+     * is garbage collected. The file is registered, when it is created,
+     * and deregistered by {@link #delete()}, and {@link #write(File)}, so
+     * that items, which stay in memory, or are cleaned up explicitly, cost
+     * the cleaner nothing.
+     *
+     * @param fileCleaner The cleaner, or null to leave the temporary file
+     *   untracked.
+     * @since 2.0
+     */
+    public void setFileCleaner(final FileCleaner fileCleaner) {
+        deregister();
+        this.fileCleaner = fileCleaner;
+        if (fileCleaner != null && getStoreLocation() != null) {
+            cleanerRegistration = fileCleaner.register(getStoreLocation(), this);
+        }
+    }
+
+    /**
+     * Sets the tracker, which deletes the temporary file, when this
+     * item is garbage collected. The file is registered, when it is
+     * created, so items, which stay in memory, cost the tracker
+     * nothing.
+     *
+     * @param fileCleaningTracker The tracker, or null to leave the
+     *   temporary file untracked.
+     * @since 2.0
+     */
+    public void setFileCleaningTracker(final FileCleaningTracker fileCleaningTracker) {
+        this.fileCleaningTracker = fileCleaningTracker;
+        if (fileCleaningTracker != null && getStoreLocation() != null) {
+            fileCleaningTracker.track(getStoreLocation(), this);
+        }
+    }
+
     /**
      * Sets the file item headers.
      *
@@ -531,6 +968,46 @@ public class DiskFileItem implements FileItem {
         this.headers = headers;
     }
 
+    /**
+     * Sets the budget, from which the contents reserve memory, while
+     * they are below the size threshold. If the budget is exhausted,
+     * then the contents are moved to disk early. The memory is returned
+     * to the budget, when the contents move to disk, by {@link #delete()},
+     * or, at the latest, once the item has been garbage collected. Must
+     * be called before {@link #getOutputStream()}.
+     *
+     * @param memoryBudget The budget, or null (default) to limit the
+     *   contents by the size threshold only.
+     * @throws IllegalStateException The output stream has already been
+     *   created.
+     * @since 2.0
+     */
+    public void setMemoryBudget(final MemoryBudget memoryBudget) {
+        if (dfos != null) {
+            throw new IllegalStateException("The output stream has already been created");
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the layout, which determines the location of the temporary
+     * file. If a layout is given, then the repository is ignored. Must
+     * be called before the temporary file is requested.
+     *
+     * @param repositoryLayout The layout, or null (default) to create
+     *   the temporary file in the repository directly.
+     * @throws IllegalStateException The temporary file has already been
+     *   determined.
+     * @see #getTempFile()
+     * @since 2.0
+     */
+    public void setRepositoryLayout(final RepositoryLayout repositoryLayout) {
+        if (tempFile != null) {
+            throw new IllegalStateException("The temporary file has already been determined");
+        }
+        this.repositoryLayout = repositoryLayout;
+    }
+
     /**
      * Returns a string representation of this object.
      *
@@ -561,12 +1038,14 @@ public class DiskFileItem implements FileItem {
      */
     @Override
     public void write(final File file) throws IOException {
+        cachedFileContent = null;
         if (isInMemory()) {
-            try (OutputStream fout = Files.newOutputStream(file.toPath())) {
-                fout.write(get());
+            try {
+                writeContents(file.toPath(), true);
             } catch (final IOException e) {
                 throw new IOException("Unexpected output data", e);
             }
+            deregister();
         } else {
             final File outputFile = getStoreLocation();
             if (outputFile == null) {
@@ -584,6 +1063,132 @@ public class DiskFileItem implements FileItem {
                 throw new FileUploadException("Cannot write uploaded file to disk.");
             }
             FileUtils.moveFile(outputFile, file);
+            deregister();
+        }
+    }
+
+    /**
+     * Writes an uploaded item to the given path.
+     * <p>
+     * Items in memory are written from {@link #getByteBuffer()}, without copying them. Items on disk are moved by an atomic rename, if the path is on
+     * the same file system as the temporary file. Without {@code REPLACE_EXISTING}, the temporary file is hard linked, and unlinked instead, because
+     * a rename would replace a file, that has been created concurrently. Otherwise, the temporary file is copied by {@link FileChannel#transferTo(long, long,
+     * java.nio.channels.WritableByteChannel)}, which lets the operating system copy the data, and deleted afterwards.
+     * </p>
+     * <p>
+     * As with {@link #write(File)}, this method is only guaranteed to work <em>once</em>.
+     * </p>
+     *
+     * @param path    The path, to which the uploaded item should be stored.
+     * @param options {@link StandardCopyOption#REPLACE_EXISTING} replaces an existing file. {@link StandardCopyOption#ATOMIC_MOVE} requires the move to
+     *                be atomic, rather than falling back to a copy. Other options are ignored.
+     * @throws java.nio.file.FileAlreadyExistsException The file exists, and {@code REPLACE_EXISTING} hasn't been given.
+     * @throws java.nio.file.AtomicMoveNotSupportedException {@code ATOMIC_MOVE} has been given, but the file can't be moved atomically.
+     * @throws IOException if an error occurs.
+     * @since 2.0
+     */
+    public void write(final Path path, final CopyOption... options) throws IOException {
+        cachedFileContent = null;
+        boolean replace = false;
+        boolean atomic = false;
+        for (final CopyOption option : options) {
+            if (option == StandardCopyOption.REPLACE_EXISTING) {
+                replace = true;
+            } else if (option == StandardCopyOption.ATOMIC_MOVE) {
+                atomic = true;
+            }
+        }
+        if (isInMemory()) {
+            writeContents(path, replace);
+            deregister();
+            return;
+        }
+        final File outputFile = getStoreLocation();
+        if (outputFile == null) {
+            throw new FileUploadException("Cannot write uploaded file to disk.");
+        }
+        size = outputFile.length();
+        final Path source = outputFile.toPath();
+        if (replace) {
+            try {
+                Files.move(source, path, StandardCopyOption.ATOMIC_MOVE);
+                deregister();
+                return;
+            } catch (final AtomicMoveNotSupportedException e) {
+                if (atomic) {
+                    throw e;
+                }
+            }
+        } else {
+            // A rename may replace an existing file, so the file is linked, which fails atomically, if the target exists.
+            boolean linked = false;
+            try {
+                Files.createLink(path, source);
+                linked = true;
+            } catch (final FileAlreadyExistsException e) {
+                throw e;
+            } catch (final IOException | UnsupportedOperationException e) {
+                if (atomic) {
+                    throw new AtomicMoveNotSupportedException(source.toString(), path.toString(), e.getMessage());
+                }
+            }
+            if (linked) {
+                // The target holds the data now, so a failure must not fall back to a copy. The temporary file stays registered for cleanup.
+                try {
+                    Files.delete(source);
+                } catch (final IOException e) {
+                    throw new IOException("The item has been written to " + path + ", but the temporary file " + source + " can't be deleted", e);
+                }
+                deregister();
+                return;
+            }
+        }
+        boolean created = false;
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE, replace ? StandardOpenOption.CREATE : StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                // From now on, the target holds no data of the caller's.
+                created = true;
+                long position = 0;
+                final long count = in.size();
+                while (position < count) {
+                    final long transferred = in.transferTo(position, count - position, out);
+                    if (transferred <= 0) {
+                        // The temporary file has been truncated.
+                        throw new EOFException("Expected " + count + " bytes in " + source + ", but found " + position);
+                    }
+                    position += transferred;
+                }
+            }
+        } catch (final IOException e) {
+            if (created) {
+                Files.deleteIfExists(path);
+            }
+            throw e;
+        }
+        Files.delete(source);
+        deregister();
+    }
+
+    /**
+     * Writes the contents of an item in memory to the given path, without copying them.
+     *
+     * @param path    The path, to which the contents are written.
+     * @param replace Whether an existing file is replaced.
+     * @throws IOException if an error occurs.
+     */
+    private void writeContents(final Path path, final boolean replace) throws IOException {
+        final DirectDeferredFileOutputStream direct = getDirectContents();
+        final ByteBuffer contents = direct == null ? getByteBuffer() : null;
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.WRITE, replace ? StandardOpenOption.CREATE : StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (direct != null) {
+                direct.writeTo(out);
+                return;
+            }
+            while (contents.hasRemaining()) {
+                out.write(contents);
+            }
         }
     }
 
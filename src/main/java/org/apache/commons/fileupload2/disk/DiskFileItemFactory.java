@@ -20,6 +20,9 @@ import java.io.File;
 
 import org.apache.commons.fileupload2.FileItem;
 import org.apache.commons.fileupload2.FileItemFactory;
+import org.apache.commons.fileupload2.util.Digester;
+import org.apache.commons.fileupload2.util.DirectBufferPool;
+import org.apache.commons.fileupload2.util.MemoryBudget;
 import org.apache.commons.io.FileCleaningTracker;
 
 /**
@@ -104,6 +107,41 @@ public class DiskFileItemFactory implements FileItemFactory {
      */
     private String defaultCharset = DiskFileItem.DEFAULT_CHARSET;
 
+    /**
+     * The algorithms, which digest the contents of new items.
+     */
+    private String[] digestAlgorithms = {};
+
+    /**
+     * The pool, which provides off-heap memory for the contents of new
+     * items, or null.
+     */
+    private DirectBufferPool directBufferPool;
+
+    /**
+     * The layout, which determines the locations of temporary files,
+     * or null.
+     */
+    private RepositoryLayout repositoryLayout;
+
+    /**
+     * The service, which deletes temporary files in the background, or
+     * null.
+     */
+    private FileDeletionService deletionService;
+
+    /**
+     * The cleaner, which deletes the temporary files of collected items,
+     * or null.
+     */
+    private FileCleaner fileCleaner;
+
+    /**
+     * The budget, from which the contents of new items reserve memory,
+     * or null.
+     */
+    private MemoryBudget memoryBudget;
+
     /**
      * Constructs an unconfigured instance of this class. The resulting factory
      * may be configured by calling the appropriate setter methods.
@@ -146,10 +184,16 @@ public class DiskFileItemFactory implements FileItemFactory {
         final DiskFileItem result = new DiskFileItem(fieldName, contentType,
                 isFormField, fileName, sizeThreshold, repository);
         result.setDefaultCharset(defaultCharset);
-        final FileCleaningTracker tracker = getFileCleaningTracker();
-        if (tracker != null) {
-            tracker.track(result.getTempFile(), result);
+        if (digestAlgorithms.length > 0) {
+            result.setDigestAlgorithms(digestAlgorithms);
         }
+        result.setDirectBufferPool(directBufferPool);
+        result.setRepositoryLayout(repositoryLayout);
+        result.setDeletionService(deletionService);
+        result.setMemoryBudget(memoryBudget);
+        // Temporary files are named, and registered only when items exceed the threshold.
+        result.setFileCleaner(fileCleaner);
+        result.setFileCleaningTracker(getFileCleaningTracker());
         return result;
     }
 
@@ -163,6 +207,51 @@ public class DiskFileItemFactory implements FileItemFactory {
         return defaultCharset;
     }
 
+    /**
+     * Gets the service, which deletes temporary files in the
+     * background.
+     *
+     * @return The service, or null (default), if temporary files are
+     *   deleted synchronously.
+     * @see #setDeletionService(FileDeletionService)
+     */
+    public FileDeletionService getDeletionService() {
+        return deletionService;
+    }
+
+    /**
+     * Gets the algorithms, which digest the contents of new items.
+     *
+     * @return The algorithm names, which may be empty.
+     * @see #setDigestAlgorithms(String...)
+     */
+    public String[] getDigestAlgorithms() {
+        return digestAlgorithms.clone();
+    }
+
+    /**
+     * Gets the pool, which provides off-heap memory for the contents of
+     * new items.
+     *
+     * @return The pool, or null (default), if contents are kept on the
+     *   heap.
+     * @see #setDirectBufferPool(DirectBufferPool)
+     */
+    public DirectBufferPool getDirectBufferPool() {
+        return directBufferPool;
+    }
+
+    /**
+     * Gets the cleaner, which deletes the temporary files of collected
+     * items.
+     *
+     * @return The cleaner, or null (default).
+     * @see #setFileCleaner(FileCleaner)
+     */
+    public FileCleaner getFileCleaner() {
+        return fileCleaner;
+    }
+
     /**
      * Gets the tracker, which is responsible for deleting temporary
      * files.
@@ -174,6 +263,18 @@ public class DiskFileItemFactory implements FileItemFactory {
         return fileCleaningTracker;
     }
 
+    /**
+     * Gets the budget, from which the contents of new items reserve
+     * memory.
+     *
+     * @return The budget, or null (default), if items are limited by
+     *   the size threshold only.
+     * @see #setMemoryBudget(MemoryBudget)
+     */
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
     /**
      * Gets the directory used to temporarily store files that are larger
      * than the configured size threshold.
@@ -185,6 +286,18 @@ public class DiskFileItemFactory implements FileItemFactory {
         return repository;
     }
 
+    /**
+     * Gets the layout, which determines the locations of temporary
+     * files.
+     *
+     * @return The layout, or null (default), if temporary files are
+     *   created in the repository directly.
+     * @see #setRepositoryLayout(RepositoryLayout)
+     */
+    public RepositoryLayout getRepositoryLayout() {
+        return repositoryLayout;
+    }
+
     /**
      * Gets the size threshold beyond which files are written directly to
      * disk. The default value is 10240 bytes.
@@ -205,6 +318,73 @@ public class DiskFileItemFactory implements FileItemFactory {
         defaultCharset = charset;
     }
 
+    /**
+     * Sets the service, which deletes temporary files in the
+     * background. {@link DiskFileItem#delete()}, and the cleanup after
+     * a failed request, then return without waiting for the file
+     * system. The service should be {@link FileDeletionService#shutdown()
+     * shut down}, when the application ends.
+     *
+     * @param deletionService The service, or null (default) to delete
+     *   temporary files synchronously.
+     * @since 2.0
+     */
+    public void setDeletionService(final FileDeletionService deletionService) {
+        this.deletionService = deletionService;
+    }
+
+    /**
+     * Sets the algorithms, which digest the contents of new items,
+     * while they are being written. The digests are available from
+     * {@link DiskFileItem#getDigests()}.
+     *
+     * @param algorithms The algorithm names, as accepted by
+     *   {@link org.apache.commons.fileupload2.util.Digester#Digester(String...)},
+     *   for example "SHA-256", "MD5", or "CRC32C". None by default.
+     * @throws IllegalArgumentException One of the algorithms isn't
+     *   available.
+     * @since 2.0
+     */
+    public void setDigestAlgorithms(final String... algorithms) {
+        // Fail early for unknown algorithms.
+        new Digester(algorithms);
+        digestAlgorithms = algorithms.clone();
+    }
+
+    /**
+     * Sets the pool, which provides off-heap memory for the contents of
+     * new items, while they are below the size threshold. Items then
+     * expose their contents as read-only views with
+     * {@link DiskFileItem#getByteBuffer()}, and return the memory to the
+     * pool, when they are deleted. This is useful with large thresholds,
+     * which would otherwise fill the heap. The pool may be shared by any
+     * number of factories.
+     *
+     * @param directBufferPool The pool, or null (default) to keep
+     *   contents on the heap.
+     * @since 2.0
+     */
+    public void setDirectBufferPool(final DirectBufferPool directBufferPool) {
+        this.directBufferPool = directBufferPool;
+    }
+
+    /**
+     * Sets the cleaner, which deletes the temporary files of items, that
+     * are garbage collected without having been deleted. This is a
+     * scalable alternative to the
+     * {@link #setFileCleaningTracker(FileCleaningTracker) tracker}:
+     * Items deregister their files, when they are deleted, or written,
+     * so that tracking costs next to nothing for items, which are
+     * cleaned up explicitly. Usually, either a cleaner, or a tracker is
+     * set, but not both.
+     *
+     * @param fileCleaner The cleaner, or null (default) to disable it.
+     * @since 2.0
+     */
+    public void setFileCleaner(final FileCleaner fileCleaner) {
+        this.fileCleaner = fileCleaner;
+    }
+
     /**
      * Sets the tracker, which is responsible for deleting temporary
      * files.
@@ -217,6 +397,26 @@ public class DiskFileItemFactory implements FileItemFactory {
         fileCleaningTracker = tracker;
     }
 
+    /**
+     * Sets the budget, which limits the memory held by the contents of
+     * all items below the size threshold, across concurrent requests.
+     * Items reserve memory, as they are written, and move to disk early,
+     * once the budget is exhausted. The memory is returned, when items
+     * move to disk, or are deleted, so applications, which set a
+     * budget, should {@link DiskFileItem#delete() delete} items, when
+     * they are done with them. The budget may be shared by any number
+     * of factories. Items in {@link #setDirectBufferPool(DirectBufferPool)
+     * off-heap memory} reserve the capacity of their buffers, rather
+     * than the bytes written.
+     *
+     * @param memoryBudget The budget, or null (default) to limit items
+     *   by the size threshold only.
+     * @since 2.0
+     */
+    public void setMemoryBudget(final MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
     /**
      * Sets the directory used to temporarily store files that are larger
      * than the configured size threshold.
@@ -228,6 +428,21 @@ public class DiskFileItemFactory implements FileItemFactory {
         this.repository = repository;
     }
 
+    /**
+     * Sets the layout, which spreads temporary files across hashed
+     * subdirectories of one, or more repository roots. This reduces
+     * contention on a single directory, when many uploads are written
+     * concurrently. If a layout is set, then the
+     * {@link #setRepository(File) repository} is ignored.
+     *
+     * @param repositoryLayout The layout, or null (default) to create
+     *   temporary files in the repository directly.
+     * @since 2.0
+     */
+    public void setRepositoryLayout(final RepositoryLayout repositoryLayout) {
+        this.repositoryLayout = repositoryLayout;
+    }
+
     /**
      * Sets the size threshold beyond which files are written directly to disk.
      *
@@ -0,0 +1,339 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deletes temporary files, when the objects, which own them, are garbage collected. This is a scalable alternative to
+ * {@link org.apache.commons.io.FileCleaningTracker}.
+ * <p>
+ * Like the {@link org.apache.commons.io.FileCleaningTracker}, this class uses phantom references, which are processed by a single reaper thread. Unlike
+ * it, registrations are held in a number of independently locked stripes, so that concurrent requests seldom compete for the same lock, and they can be
+ * {@link Registration#deregister() deregistered}, when the file has been deleted, or moved explicitly. A deregistered reference is cleared, so that it
+ * costs the garbage collector, and the reaper thread, nothing. {@link DiskFileItem} deregisters its temporary file in {@link DiskFileItem#delete()}, and
+ * {@link DiskFileItem#write(File)}.
+ * </p>
+ * <p>
+ * The reaper thread is started with the first registration. Applications should invoke {@link #exitWhenFinished()}, when they end, so that the thread
+ * terminates, once all registered files have been deleted.
+ * </p>
+ *
+ * @see DiskFileItemFactory#setFileCleaner(FileCleaner)
+ * @since 2.0
+ */
+public class FileCleaner {
+
+    /**
+     * The registration of a file, which is deleted, when its owner is garbage collected.
+     */
+    public interface Registration {
+
+        /**
+         * Deregisters the file, so that it won't be deleted by the cleaner. This is a no-op, if the file has already been deregistered, or deleted.
+         */
+        void deregister();
+
+    }
+
+    /**
+     * A set of trackers, and the lock, which guards it.
+     */
+    private static final class Stripe {
+
+        /**
+         * Guards {@link #trackers}. This is a lock, rather than a monitor, so that a virtual thread, which registers a file, never pins its carrier
+         * thread.
+         */
+        private final Lock lock = new ReentrantLock();
+
+        /**
+         * The registered trackers.
+         */
+        private final Set<Tracker> trackers = new HashSet<>();
+
+        /**
+         * Adds a tracker.
+         *
+         * @param tracker The tracker to add.
+         */
+        void add(final Tracker tracker) {
+            lock.lock();
+            try {
+                trackers.add(tracker);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Removes a tracker.
+         *
+         * @param tracker The tracker to remove.
+         * @return True, if the tracker was registered.
+         */
+        boolean remove(final Tracker tracker) {
+            lock.lock();
+            try {
+                return trackers.remove(tracker);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+    /**
+     * A phantom reference to the owner of a file.
+     */
+    private final class Tracker extends PhantomReference<Object> implements Registration {
+
+        /**
+         * The file, which is deleted, when the owner is garbage collected.
+         */
+        private final File file;
+
+        /**
+         * The stripe, which holds this tracker.
+         */
+        private final Stripe stripe;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param owner  The object, which owns the file.
+         * @param file   The file, which is deleted, when the owner is garbage collected.
+         * @param stripe The stripe, which holds this tracker.
+         */
+        Tracker(final Object owner, final File file, final Stripe stripe) {
+            super(owner, queue);
+            this.file = file;
+            this.stripe = stripe;
+        }
+
+        @Override
+        public void deregister() {
+            if (remove()) {
+                clear();
+            }
+        }
+
+        /**
+         * Removes this tracker from its stripe.
+         *
+         * @return True, if the tracker was still registered.
+         */
+        private boolean remove() {
+            final boolean removed = stripe.remove(this);
+            if (removed && trackCount.decrementAndGet() == 0 && exitWhenFinished) {
+                // The reaper may be waiting for a reference, which will never arrive.
+                interruptReaper();
+            }
+            return removed;
+        }
+
+    }
+
+    /**
+     * The queue, to which the garbage collector appends the trackers of collected owners.
+     */
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * The registered trackers, which are strongly referenced until they are processed, or deregistered.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * The number of registered files.
+     */
+    private final AtomicInteger trackCount = new AtomicInteger();
+
+    /**
+     * The number of files, which have been deleted by the reaper thread.
+     */
+    private final LongAdder cleaned = new LongAdder();
+
+    /**
+     * The number of files, which the reaper thread couldn't delete.
+     */
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Guards starting the reaper thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The reaper thread, or null, if it hasn't been started yet.
+     */
+    private volatile Thread reaper;
+
+    /**
+     * Whether {@link #exitWhenFinished()} has been invoked.
+     */
+    private volatile boolean exitWhenFinished;
+
+    /**
+     * Constructs a new instance with two stripes per processor.
+     */
+    public FileCleaner() {
+        this(2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param stripes The number of independently locked stripes.
+     * @throws IllegalArgumentException The number of stripes is less than one.
+     */
+    public FileCleaner(final int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Invalid number of stripes: " + stripes);
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Signals the reaper thread to terminate, once all registered files have been deleted. No new files can be registered afterwards.
+     */
+    public void exitWhenFinished() {
+        exitWhenFinished = true;
+        interruptReaper();
+    }
+
+    /**
+     * Gets the number of files, which have been deleted by the reaper thread.
+     *
+     * @return The number of cleaned files.
+     */
+    public long getCleanedCount() {
+        return cleaned.sum();
+    }
+
+    /**
+     * Gets the number of files, which the reaper thread couldn't delete.
+     *
+     * @return The number of failures.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Gets the number of files, which are currently registered.
+     *
+     * @return The number of registered files.
+     */
+    public int getTrackCount() {
+        return trackCount.get();
+    }
+
+    /**
+     * Registers a file, which is deleted, when the given owner is garbage collected.
+     *
+     * @param file  The file to delete.
+     * @param owner The object, which owns the file.
+     * @return The registration, which can be used to deregister the file.
+     * @throws IllegalStateException {@link #exitWhenFinished()} has been invoked.
+     */
+    public Registration register(final File file, final Object owner) {
+        Objects.requireNonNull(file, "file");
+        Objects.requireNonNull(owner, "owner");
+        if (exitWhenFinished) {
+            throw new IllegalStateException("No new files can be registered once exitWhenFinished() is called");
+        }
+        final Stripe stripe = stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+        final Tracker tracker = new Tracker(owner, file, stripe);
+        stripe.add(tracker);
+        trackCount.incrementAndGet();
+        if (reaper == null) {
+            start();
+        }
+        return tracker;
+    }
+
+    /**
+     * Interrupts the reaper thread, so that it checks, whether it should terminate.
+     */
+    private void interruptReaper() {
+        lock.lock();
+        try {
+            if (reaper != null) {
+                reaper.interrupt();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the files of collected owners, until {@link #exitWhenFinished()} has been invoked, and no files are registered.
+     */
+    private void run() {
+        while (!exitWhenFinished || trackCount.get() > 0) {
+            final Tracker tracker;
+            try {
+                tracker = (Tracker) queue.remove();
+            } catch (final InterruptedException e) {
+                continue;
+            }
+            if (tracker.remove()) {
+                try {
+                    Files.deleteIfExists(tracker.file.toPath());
+                    cleaned.increment();
+                } catch (final IOException | RuntimeException e) {
+                    failed.increment();
+                }
+            }
+            tracker.clear();
+        }
+    }
+
+    /**
+     * Starts the reaper thread, unless it has been started already.
+     */
+    private void start() {
+        lock.lock();
+        try {
+            if (reaper == null) {
+                final Thread thread = new Thread(this::run, "commons-fileupload-cleaner");
+                thread.setPriority(Thread.MAX_PRIORITY);
+                thread.setDaemon(true);
+                thread.start();
+                reaper = thread;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deletes temporary files in the background, so that {@link DiskFileItem#delete()} doesn't wait for the file system.
+ * <p>
+ * Files are put into a bounded queue, which is drained in batches by a daemon thread. The thread is started, when the first file is submitted. If the
+ * queue is full, or the service has been shut down, then files are deleted synchronously by the submitting thread, so that the queue never grows
+ * beyond its capacity. Failures are counted, rather than reported to the caller, who has already moved on.
+ * </p>
+ * <p>
+ * Applications should invoke {@link #shutdown()}, when they end, so that no files remain in the queue. Instances are thread-safe, and may be shared by
+ * any number of factories.
+ * </p>
+ *
+ * @see DiskFileItemFactory#setDeletionService(FileDeletionService)
+ * @since 2.0
+ */
+public class FileDeletionService {
+
+    /**
+     * The default capacity of the queue.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * The default maximum number of files, which are deleted in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /**
+     * The files, which are waiting for deletion.
+     */
+    private final BlockingQueue<File> queue;
+
+    /**
+     * The maximum number of files, which are deleted in one batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Guards starting the worker, and {@link #drained}. This is a lock, rather than a monitor, so that a virtual thread, which flushes the service,
+     * never pins its carrier thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Signals, that no deletions are pending.
+     */
+    private final Condition drained = lock.newCondition();
+
+    /**
+     * The number of files, which have been submitted, but not yet deleted.
+     */
+    private final AtomicLong pending = new AtomicLong();
+
+    /**
+     * The number of files, which have been submitted.
+     */
+    private final LongAdder submitted = new LongAdder();
+
+    /**
+     * The number of files, which have been deleted, or didn't exist.
+     */
+    private final LongAdder deleted = new LongAdder();
+
+    /**
+     * The number of files, which couldn't be deleted.
+     */
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * The number of files, which have been deleted by the submitting thread.
+     */
+    private final LongAdder inline = new LongAdder();
+
+    /**
+     * The number of batches, which have been deleted by the worker.
+     */
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * The thread, which drains the queue, or null, if it hasn't been started yet.
+     */
+    private volatile Thread worker;
+
+    /**
+     * Whether {@link #shutdown()} has been invoked.
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * Constructs a new instance with the {@link #DEFAULT_QUEUE_CAPACITY default queue capacity}, and the {@link #DEFAULT_BATCH_SIZE default batch size}.
+     */
+    public FileDeletionService() {
+        this(DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param queueCapacity The maximum number of files, which are waiting for deletion.
+     * @param batchSize     The maximum number of files, which are deleted in one batch.
+     * @throws IllegalArgumentException Either of the arguments is less than one.
+     */
+    public FileDeletionService(final int queueCapacity, final int batchSize) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Submits a file for deletion. This method returns immediately, unless the queue is full, or the service has been shut down, in which case the
+     * file is deleted synchronously.
+     *
+     * @param file The file to delete. A file, which doesn't exist, is ignored.
+     */
+    public void delete(final File file) {
+        Objects.requireNonNull(file, "file");
+        submitted.increment();
+        pending.incrementAndGet();
+        if (shutdown || !queue.offer(file)) {
+            inline.increment();
+            deleteNow(file);
+            return;
+        }
+        if (shutdown) {
+            // The worker may have stopped before the file was queued.
+            drain();
+            return;
+        }
+        if (worker == null) {
+            start();
+        }
+    }
+
+    /**
+     * Deletes all files, which have been submitted so far, and waits for the deletions to complete. Files, which are still in the queue, are deleted by
+     * the calling thread.
+     *
+     * @throws InterruptedException The calling thread has been interrupted, while waiting for the worker.
+     */
+    public void flush() throws InterruptedException {
+        drain();
+        lock.lock();
+        try {
+            while (pending.get() > 0) {
+                drained.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of batches, which have been deleted by the background thread.
+     *
+     * @return The number of batches.
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * Gets the number of files, which have been deleted, or didn't exist.
+     *
+     * @return The number of deleted files.
+     */
+    public long getDeletedCount() {
+        return deleted.sum();
+    }
+
+    /**
+     * Gets the number of files, which couldn't be deleted.
+     *
+     * @return The number of failures.
+     */
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    /**
+     * Gets the number of files, which have been deleted synchronously, because the queue was full, or the service has been shut down.
+     *
+     * @return The number of files, which have been deleted by the submitting thread.
+     */
+    public long getInlineCount() {
+        return inline.sum();
+    }
+
+    /**
+     * Gets the number of files, which have been submitted, but not yet deleted.
+     *
+     * @return The number of pending files.
+     */
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Gets the number of files, which have been submitted.
+     *
+     * @return The number of submitted files.
+     */
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Tests, whether the service has been shut down.
+     *
+     * @return True, if {@link #shutdown()} has been invoked.
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Stops the background thread, and deletes all files, which have been submitted so far. Files, which are submitted afterwards, are deleted
+     * synchronously.
+     *
+     * @throws InterruptedException The calling thread has been interrupted, while waiting for the worker.
+     */
+    public void shutdown() throws InterruptedException {
+        shutdown = true;
+        final Thread thread;
+        lock.lock();
+        try {
+            thread = worker;
+        } finally {
+            lock.unlock();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread.join();
+        }
+        flush();
+    }
+
+    /**
+     * Deletes the files in the queue on the calling thread.
+     */
+    private void drain() {
+        for (File file = queue.poll(); file != null; file = queue.poll()) {
+            deleteNow(file);
+        }
+    }
+
+    /**
+     * Deletes a single file, and updates the metrics.
+     *
+     * @param file The file to delete.
+     */
+    private void deleteNow(final File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+            deleted.increment();
+        } catch (final IOException | RuntimeException e) {
+            failed.increment();
+        } finally {
+            if (pending.decrementAndGet() == 0) {
+                lock.lock();
+                try {
+                    drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drains the queue in batches, until the service is shut down.
+     */
+    private void run() {
+        final List<File> batch = new ArrayList<>(batchSize);
+        while (!shutdown) {
+            try {
+                batch.add(queue.take());
+            } catch (final InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            for (final File file : batch) {
+                deleteNow(file);
+            }
+            batches.increment();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Starts the background thread, unless it has been started already.
+     */
+    private void start() {
+        lock.lock();
+        try {
+            if (worker == null && !shutdown) {
+                final Thread thread = new Thread(this::run, "commons-fileupload-deletion");
+                thread.setDaemon(true);
+                thread.start();
+                worker = thread;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.disk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+import org.apache.commons.fileupload2.util.MemoryBudget;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.ClosedInputStream;
+import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+/**
+ * A {@link DeferredFileOutputStream}, which determines its file only when the threshold is exceeded. Items, which stay in memory, never create a
+ * {@link File}, a file name, or a registration with a cleaner. The data is kept on the heap; subclasses may keep it elsewhere by overriding the memory
+ * related methods.
+ * <p>
+ * If a {@link MemoryBudget.Reservation} is given, then every write reserves memory from it, and the data moves to the file early, if the budget is
+ * exhausted.
+ * </p>
+ */
+class LazyDeferredFileOutputStream extends DeferredFileOutputStream {
+
+    /**
+     * Provides the file, once the threshold has been exceeded.
+     */
+    private final Supplier<File> fileSupplier;
+
+    /**
+     * The file, which receives the data, or null, if the threshold hasn't been exceeded yet.
+     */
+    private File file;
+
+    /**
+     * The stream, which writes to the file, once the threshold has been exceeded, or null.
+     */
+    private OutputStream fileStream;
+
+    /**
+     * The stream, which holds the data, while it is in memory, or null.
+     */
+    private ByteArrayOutputStream memoryStream;
+
+    /**
+     * Whether the stream has been closed.
+     */
+    private boolean closed;
+
+    /**
+     * The reservation, which holds the memory of the data, or null.
+     */
+    private final MemoryBudget.Reservation reservation;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threshold    The number of bytes, at which the data is moved to the file.
+     * @param fileSupplier Provides the file, once the threshold has been exceeded.
+     * @param reservation  The reservation, which holds the memory of the data, or null.
+     */
+    LazyDeferredFileOutputStream(final int threshold, final Supplier<File> fileSupplier, final MemoryBudget.Reservation reservation) {
+        // The superclass' memory buffer is never used, so it is created empty.
+        super(threshold, 0, null);
+        this.fileSupplier = fileSupplier;
+        this.reservation = reservation;
+    }
+
+    /**
+     * Reserves memory for the bytes, which are about to be written, after checking the threshold. If the budget is exhausted, then the data is moved
+     * to the file.
+     *
+     * @param count The number of bytes, which are about to be written.
+     * @throws IOException Moving the data to the file has failed.
+     */
+    @Override
+    protected void checkThreshold(final int count) throws IOException {
+        super.checkThreshold(count);
+        if (reservation != null && fileStream == null && count > 0 && !reserve(count)) {
+            thresholdReached();
+        }
+    }
+
+    /**
+     * Reserves memory for the bytes, which are about to be written, while the data is in memory, and a reservation is given.
+     *
+     * @param count The number of bytes, which are about to be written.
+     * @return False, if the budget is exhausted.
+     */
+    boolean reserve(final int count) {
+        return reservation.tryAcquire(count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        closed = true;
+    }
+
+    /**
+     * Checks, whether the stream has been closed.
+     *
+     * @throws IOException The stream hasn't been closed.
+     */
+    private void checkClosed() throws IOException {
+        if (!closed) {
+            throw new IOException("Stream not closed");
+        }
+    }
+
+    /**
+     * Gets a copy of the data.
+     *
+     * @return The data, or null, if it isn't in memory.
+     */
+    @Override
+    public byte[] getData() {
+        if (!isInMemory()) {
+            return null;
+        }
+        return memoryStream == null ? new byte[0] : memoryStream.toByteArray();
+    }
+
+    /**
+     * Gets the file, which receives the data.
+     *
+     * @return The file, or null, if the threshold hasn't been exceeded.
+     */
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the stream, which receives the data, while it is in memory.
+     *
+     * @return The memory stream.
+     */
+    protected OutputStream getMemoryStream() {
+        if (memoryStream == null) {
+            memoryStream = new ByteArrayOutputStream();
+        }
+        return memoryStream;
+    }
+
+    @Override
+    protected OutputStream getStream() throws IOException {
+        return fileStream == null ? getMemoryStream() : fileStream;
+    }
+
+    /**
+     * Tests, whether the data has been moved to the file, either because the threshold, or the memory budget has been exceeded.
+     *
+     * @return True, if the data isn't in memory.
+     */
+    @Override
+    public boolean isThresholdExceeded() {
+        return fileStream != null || super.isThresholdExceeded();
+    }
+
+    /**
+     * Releases the memory, which holds the data, and returns it to the budget. The data is invalid afterwards.
+     */
+    void release() {
+        releaseMemory();
+        if (reservation != null) {
+            reservation.release();
+        }
+    }
+
+    /**
+     * Releases the memory, which holds the data. The data is invalid afterwards.
+     */
+    protected void releaseMemory() {
+        memoryStream = null;
+    }
+
+    /**
+     * Determines the file, moves the data there, and releases the memory. This is a no-op, if the data has already been moved to the file.
+     *
+     * @throws IOException Writing the file has failed.
+     */
+    @Override
+    protected void thresholdReached() throws IOException {
+        if (fileStream != null) {
+            return;
+        }
+        final File outputFile = fileSupplier.get();
+        FileUtils.forceMkdirParent(outputFile);
+        final FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        try {
+            writeMemoryTo(channel);
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        file = outputFile;
+        fileStream = Channels.newOutputStream(channel);
+        release();
+    }
+
+    @Override
+    public InputStream toInputStream() throws IOException {
+        checkClosed();
+        if (isInMemory()) {
+            return toMemoryInputStream();
+        }
+        return Files.newInputStream(file.toPath());
+    }
+
+    /**
+     * Returns an input stream, which reads the data in memory.
+     *
+     * @return An input stream, which reads the data.
+     */
+    protected InputStream toMemoryInputStream() {
+        return memoryStream == null ? ClosedInputStream.CLOSED_INPUT_STREAM : memoryStream.toInputStream();
+    }
+
+    /**
+     * Writes the data in memory to the given channel.
+     *
+     * @param channel The channel, to which the data is written.
+     * @throws IOException Writing the data has failed.
+     */
+    protected void writeMemoryTo(final FileChannel channel) throws IOException {
+        if (memoryStream != null) {
+            memoryStream.writeTo(Channels.newOutputStream(channel));
+        }
+    }
+
+    /**
+     * Writes the data in memory to the given stream.
+     *
+     * @param outputStream The stream, to which the data is written.
+     * @throws IOException Writing the data has failed.
+     */
+    protected void writeMemoryTo(final OutputStream outputStream) throws IOException {
+        if (memoryStream != null) {
+            memoryStream.writeTo(outputStream);
+        }
+    }
+
+    @Override
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        checkClosed();
+        if (isInMemory()) {
+            writeMemoryTo(outputStream);
+        } else {
+            Files.copy(file.toPath(), outputStream);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.disk;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Determines the locations of temporary files, which are created by {@link DiskFileItem}.
+ * <p>
+ * By default, all temporary files are created in a single repository directory. With many uploads, that directory becomes a point of contention, and
+ * its size slows down file system operations. A layout spreads temporary files across a number of subdirectories, which are named by two or more hex
+ * digits, and selected by a hash of the file's unique id. If more than one repository root is given, then the roots are used in turn, so that
+ * concurrent uploads are spread across several disks.
+ * </p>
+ * <p>
+ * Subdirectories are created on demand, when the first file in them is written. Instances are thread-safe, and may be shared by any number of
+ * factories.
+ * </p>
+ *
+ * @see DiskFileItemFactory#setRepositoryLayout(RepositoryLayout)
+ * @since 2.0
+ */
+public class RepositoryLayout {
+
+    /**
+     * The maximum number of subdirectories per root.
+     */
+    public static final int MAX_SHARDS = 1 << 16;
+
+    /**
+     * The number of bits per hex digit.
+     */
+    private static final int HEX_DIGIT_BITS = 4;
+
+    /**
+     * The multiplier, which spreads consecutive ids across the subdirectories.
+     */
+    private static final int HASH_MULTIPLIER = 0x9E3779B9;
+
+    /**
+     * The subdirectories, indexed by root, and shard.
+     */
+    private final File[][] directories;
+
+    /**
+     * The number of bits, by which the hash is shifted to yield the shard.
+     */
+    private final int shardShift;
+
+    /**
+     * The counter, which selects the next root.
+     */
+    private final AtomicInteger nextRoot = new AtomicInteger();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param shards The number of subdirectories per root, which must be a power of two between 1, and {@link #MAX_SHARDS}. If it is 1, then
+     *               temporary files are created in the roots directly.
+     * @param roots  The repository roots, at least one.
+     * @throws IllegalArgumentException Either of the arguments is out of range.
+     */
+    public RepositoryLayout(final int shards, final File... roots) {
+        if (shards < 1 || shards > MAX_SHARDS || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("Invalid number of shards: " + shards);
+        }
+        if (roots.length == 0) {
+            throw new IllegalArgumentException("No repository roots given.");
+        }
+        final int bits = Integer.numberOfTrailingZeros(shards);
+        shardShift = Integer.SIZE - bits;
+        final int digits = Math.max(2, (bits + HEX_DIGIT_BITS - 1) / HEX_DIGIT_BITS);
+        directories = new File[roots.length][];
+        for (int i = 0; i < roots.length; i++) {
+            final File root = Objects.requireNonNull(roots[i], "root");
+            directories[i] = new File[shards];
+            if (shards == 1) {
+                directories[i][0] = root;
+                continue;
+            }
+            for (int j = 0; j < shards; j++) {
+                final StringBuilder name = new StringBuilder(digits).append(Integer.toHexString(j));
+                while (name.length() < digits) {
+                    name.insert(0, '0');
+                }
+                directories[i][j] = new File(root, name.toString());
+            }
+        }
+    }
+
+    /**
+     * Gets the repository roots.
+     *
+     * @return The roots, in the order of their use.
+     */
+    public File[] getRoots() {
+        final File[] roots = new File[directories.length];
+        for (int i = 0; i < roots.length; i++) {
+            final File[] shards = directories[i];
+            roots[i] = shards.length == 1 ? shards[0] : shards[0].getParentFile();
+        }
+        return roots;
+    }
+
+    /**
+     * Gets the number of subdirectories per root.
+     *
+     * @return The number of shards.
+     */
+    public int getShards() {
+        return directories[0].length;
+    }
+
+    /**
+     * Creates the location of a new temporary file. The file isn't created.
+     *
+     * @return A uniquely named file in the next root, and the subdirectory, which is selected by the file's id.
+     */
+    public File newTempFile() {
+        final int id = DiskFileItem.nextUniqueId();
+        final File[] shards = directories[Math.floorMod(nextRoot.getAndIncrement(), directories.length)];
+        // The multiplicative hash spreads consecutive ids evenly across the shards.
+        final int shard = shards.length == 1 ? 0 : (id * HASH_MULTIPLIER) >>> shardShift;
+        return new File(shards[shard], DiskFileItem.getTempFileName(id));
+    }
+
+}
@@ -17,8 +17,10 @@
 package org.apache.commons.fileupload2.impl;
 
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -36,7 +38,9 @@ import org.apache.commons.fileupload2.ProgressListener;
 import org.apache.commons.fileupload2.RequestContext;
 import org.apache.commons.fileupload2.pub.FileUploadContentTypeException;
 import org.apache.commons.fileupload2.pub.FileUploadSizeException;
+import org.apache.commons.fileupload2.util.BufferPool;
 import org.apache.commons.fileupload2.util.LimitedInputStream;
+import org.apache.commons.fileupload2.util.LimitedReadableByteChannel;
 import org.apache.commons.io.IOUtils;
 
 /**
@@ -73,6 +77,16 @@ public class FileItemIteratorImpl implements FileItemIterator {
      */
     private MultipartStream multiPartStream;
 
+    /**
+     * The pool, from which {@link #pooledBuffer} has been borrowed.
+     */
+    private BufferPool bufferPool;
+
+    /**
+     * The buffer of {@link #multiPartStream}, if it has been borrowed from {@link #bufferPool}.
+     */
+    private byte[] pooledBuffer;
+
     /**
      * The notifier, which used for triggering the {@link ProgressListener}.
      */
@@ -108,6 +122,11 @@ public class FileItemIteratorImpl implements FileItemIterator {
      */
     private boolean eof;
 
+    /**
+     * The field name, which {@link #skipToField(String)} is looking for, or null.
+     */
+    private String skipToFieldName;
+
     /**
      * Constructs a new instance.
      *
@@ -122,7 +141,15 @@ public class FileItemIteratorImpl implements FileItemIterator {
         this.fileSizeMax = fileUploadBase.getFileSizeMax();
         this.ctx = Objects.requireNonNull(requestContext, "requestContext");
         this.skipPreamble = true;
-        findNextItem();
+        boolean initialized = false;
+        try {
+            findNextItem();
+            initialized = true;
+        } finally {
+            if (!initialized) {
+                releaseBuffer();
+            }
+        }
     }
 
     /**
@@ -151,6 +178,7 @@ public class FileItemIteratorImpl implements FileItemIterator {
                 if (currentFieldName == null) {
                     // Outer multipart terminated -> No more data
                     eof = true;
+                    releaseBuffer();
                     return false;
                 }
                 // Inner multipart terminated -> Return to parsing the outer
@@ -158,11 +186,11 @@ public class FileItemIteratorImpl implements FileItemIterator {
                 currentFieldName = null;
                 continue;
             }
-            final FileItemHeaders headers = fileUploadBase.getParsedHeaders(multi.readHeaders());
+            final FileItemHeaders headers = fileUploadBase.getParsedHeaders(multi);
             if (currentFieldName == null) {
                 // We're parsing the outer multipart
                 final String fieldName = fileUploadBase.getFieldName(headers);
-                if (fieldName != null) {
+                if (fieldName != null && isWanted(fieldName)) {
                     final String subContentType = headers.getHeader(AbstractFileUpload.CONTENT_TYPE);
                     if (subContentType != null && subContentType.toLowerCase(Locale.ENGLISH).startsWith(AbstractFileUpload.MULTIPART_MIXED)) {
                         currentFieldName = fieldName;
@@ -182,7 +210,7 @@ public class FileItemIteratorImpl implements FileItemIterator {
                 }
             } else {
                 final String fileName = fileUploadBase.getFileName(headers);
-                if (fileName != null) {
+                if (fileName != null && isWanted(currentFieldName)) {
                     currentItem = new FileItemStreamImpl(this, fileName, currentFieldName, headers.getHeader(AbstractFileUpload.CONTENT_TYPE), false,
                             getContentLength(headers));
                     currentItem.setHeaders(headers);
@@ -248,6 +276,45 @@ public class FileItemIteratorImpl implements FileItemIterator {
         return findNextItem();
     }
 
+    /**
+     * Gets the requests channel, limited to {@link #getSizeMax()}, if the request context provides one.
+     *
+     * @return The channel, or null.
+     * @throws IOException An I/O error occurred.
+     */
+    private ReadableByteChannel getChannel() throws IOException {
+        final ReadableByteChannel channel = ctx.getChannel();
+        if (channel == null || sizeMax < 0) {
+            return channel;
+        }
+        return new LimitedReadableByteChannel(channel, sizeMax) {
+            @Override
+            protected void raiseError(final long maxLen, final long count) throws IOException {
+                throw new FileUploadSizeException(
+                        String.format("The request was rejected because its size (%s) exceeds the configured maximum (%s)", count, maxLen), maxLen, count);
+            }
+        };
+    }
+
+    /**
+     * Gets the requests input stream, limited to {@link #getSizeMax()}.
+     *
+     * @return The input stream.
+     * @throws IOException An I/O error occurred.
+     */
+    private InputStream getInputStream() throws IOException {
+        if (sizeMax < 0) {
+            return ctx.getInputStream();
+        }
+        return new LimitedInputStream(ctx.getInputStream(), sizeMax) {
+            @Override
+            protected void raiseError(final long maxLen, final long count) throws IOException {
+                throw new FileUploadSizeException(
+                        String.format("The request was rejected because its size (%s) exceeds the configured maximum (%s)", count, maxLen), maxLen, count);
+            }
+        };
+    }
+
     protected void init(final AbstractFileUpload fileUploadBase, final RequestContext requestContext) throws FileUploadException, IOException {
         final String contentType = ctx.getContentType();
         if ((null == contentType) || (!contentType.toLowerCase(Locale.ENGLISH).startsWith(AbstractFileUpload.MULTIPART))) {
@@ -262,24 +329,15 @@ public class FileItemIteratorImpl implements FileItemIterator {
                                  : contentLengthInt;
                                  // CHECKSTYLE:ON
         // @formatter:on
-        final InputStream input; // N.B. this is eventually closed in MultipartStream processing
-        if (sizeMax >= 0) {
-            if (requestSize != -1 && requestSize > sizeMax) {
-                throw new FileUploadSizeException(
-                        String.format("the request was rejected because its size (%s) exceeds the configured maximum (%s)", requestSize, sizeMax), sizeMax,
-                        requestSize);
-            }
-            // N.B. this is eventually closed in MultipartStream processing
-            input = new LimitedInputStream(ctx.getInputStream(), sizeMax) {
-                @Override
-                protected void raiseError(final long maxLen, final long count) throws IOException {
-                    throw new FileUploadSizeException(
-                            String.format("The request was rejected because its size (%s) exceeds the configured maximum (%s)", count, maxLen), maxLen, count);
-                }
-            };
-        } else {
-            input = ctx.getInputStream();
+        if (sizeMax >= 0 && requestSize != -1 && requestSize > sizeMax) {
+            throw new FileUploadSizeException(
+                    String.format("the request was rejected because its size (%s) exceeds the configured maximum (%s)", requestSize, sizeMax), sizeMax,
+                    requestSize);
         }
+        // N.B. the channel, or the input stream is eventually closed in MultipartStream processing
+        final ReadableByteChannel channel = getChannel();
+        final InputStream input = channel == null ? getInputStream() : null;
+        final Closeable source = channel == null ? input : channel;
 
         String charEncoding = fileUploadBase.getHeaderEncoding();
         if (charEncoding == null) {
@@ -288,18 +346,49 @@ public class FileItemIteratorImpl implements FileItemIterator {
 
         multiPartBoundary = fileUploadBase.getBoundary(contentType);
         if (multiPartBoundary == null) {
-            IOUtils.closeQuietly(input); // avoid possible resource leak
+            IOUtils.closeQuietly(source); // avoid possible resource leak
             throw new FileUploadException("the request was rejected because no multipart boundary was found");
         }
 
         progressNotifier = new MultipartStream.ProgressNotifier(fileUploadBase.getProgressListener(), requestSize);
+        final int bufferSize = fileUploadBase.getBufferSize(requestSize);
+        final BufferPool pool = fileUploadBase.getBufferPool();
+        final byte[] buffer = pool == null ? null : pool.acquire(bufferSize);
         try {
-            multiPartStream = new MultipartStream(input, multiPartBoundary, progressNotifier);
+            if (channel != null) {
+                if (buffer == null) {
+                    multiPartStream = new MultipartStream(channel, multiPartBoundary, bufferSize, progressNotifier);
+                } else {
+                    multiPartStream = new MultipartStream(channel, multiPartBoundary, buffer, progressNotifier);
+                }
+            } else if (buffer == null) {
+                multiPartStream = new MultipartStream(input, multiPartBoundary, bufferSize, progressNotifier);
+            } else {
+                multiPartStream = new MultipartStream(input, multiPartBoundary, buffer, progressNotifier);
+            }
         } catch (final IllegalArgumentException e) {
-            IOUtils.closeQuietly(input); // avoid possible resource leak
+            IOUtils.closeQuietly(source); // avoid possible resource leak
+            if (pool != null) {
+                pool.release(buffer);
+            }
             throw new FileUploadContentTypeException(String.format("The boundary specified in the %s header is too long", AbstractFileUpload.CONTENT_TYPE), e);
         }
+        bufferPool = pool;
+        pooledBuffer = buffer;
         multiPartStream.setHeaderEncoding(charEncoding);
+        if (fileUploadBase.getBoundarySearch() != null) {
+            multiPartStream.setBoundarySearch(fileUploadBase.getBoundarySearch());
+        }
+    }
+
+    /**
+     * Tests, whether an item with the given field name is wanted, or must be skipped.
+     *
+     * @param fieldName The items field name.
+     * @return False, if {@link #skipToField(String)} is looking for another field name, otherwise true.
+     */
+    private boolean isWanted(final String fieldName) {
+        return skipToFieldName == null || skipToFieldName.equals(fieldName);
     }
 
     /**
@@ -319,6 +408,36 @@ public class FileItemIteratorImpl implements FileItemIterator {
         return currentItem;
     }
 
+    /**
+     * Returns the buffer of the {@link MultipartStream} to the {@link AbstractFileUpload#getBufferPool() buffer pool}, if it has been borrowed from there.
+     * This happens automatically, when the end of the request has been reached. The iterator must not be used after calling this method.
+     */
+    public void releaseBuffer() {
+        if (pooledBuffer != null) {
+            final byte[] buffer = pooledBuffer;
+            pooledBuffer = null;
+            bufferPool.release(buffer);
+        }
+    }
+
+    @Override
+    public FileItemStream skipToField(final String fieldName) throws FileUploadException, IOException {
+        Objects.requireNonNull(fieldName, "fieldName");
+        if (eof) {
+            return null;
+        }
+        if (itemValid && fieldName.equals(currentItem.getFieldName())) {
+            return next();
+        }
+        itemValid = false;
+        skipToFieldName = fieldName;
+        try {
+            return findNextItem() ? next() : null;
+        } finally {
+            skipToFieldName = null;
+        }
+    }
+
     @Override
     public void setFileSizeMax(final long fileSizeMax) {
         this.fileSizeMax = fileSizeMax;
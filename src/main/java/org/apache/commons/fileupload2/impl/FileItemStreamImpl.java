@@ -17,8 +17,10 @@
 package org.apache.commons.fileupload2.impl;
 
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 import org.apache.commons.fileupload2.FileItemHeaders;
 import org.apache.commons.fileupload2.FileItemStream;
@@ -66,6 +68,16 @@ public class FileItemStreamImpl implements FileItemStream {
      */
     private final InputStream inputStream;
 
+    /**
+     * The underlying stream of {@link #inputStream}.
+     */
+    private final ItemInputStream itemInputStream;
+
+    /**
+     * The maximum allowed size of this file item, or -1.
+     */
+    private final long fileSizeMax;
+
     /**
      * The file items input stream closed flag.
      */
@@ -95,22 +107,19 @@ public class FileItemStreamImpl implements FileItemStream {
         this.fieldName = fieldName;
         this.contentType = contentType;
         this.formField = formField;
-        final long fileSizeMax = fileItemIteratorImpl.getFileSizeMax();
+        this.fileSizeMax = fileItemIteratorImpl.getFileSizeMax();
         if (fileSizeMax != -1 && contentLength != -1 && contentLength > fileSizeMax) {
             throw new FileUploadByteCountLimitException(String.format("The field %s exceeds its maximum permitted size of %s bytes.", fieldName, fileSizeMax),
                     contentLength, fileSizeMax, fileName, fieldName);
         }
         // OK to construct stream now
-        final ItemInputStream itemInputStream = fileItemIteratorImpl.getMultiPartStream().newInputStream();
+        this.itemInputStream = fileItemIteratorImpl.getMultiPartStream().newInputStream();
         InputStream istream = itemInputStream;
         if (fileSizeMax != -1) {
             istream = new LimitedInputStream(istream, fileSizeMax) {
                 @Override
                 protected void raiseError(final long sizeMax, final long count) throws IOException {
-                    itemInputStream.close(true);
-                    throw new FileUploadByteCountLimitException(
-                            String.format("The field %s exceeds its maximum permitted size of %s bytes.", fieldName, sizeMax), count, sizeMax, fileName,
-                            fieldName);
+                    raiseFileSizeError(sizeMax, count);
                 }
             };
         }
@@ -193,6 +202,19 @@ public class FileItemStreamImpl implements FileItemStream {
         return inputStream;
     }
 
+    /**
+     * Closes the underlying stream, and throws an exception, because the file size limit has been exceeded.
+     *
+     * @param sizeMax The maximum allowed size of the file item.
+     * @param count   The number of bytes, which have been read so far.
+     * @throws IOException Always.
+     */
+    private void raiseFileSizeError(final long sizeMax, final long count) throws IOException {
+        itemInputStream.close(true);
+        throw new FileUploadByteCountLimitException(String.format("The field %s exceeds its maximum permitted size of %s bytes.", fieldName, sizeMax), count,
+                sizeMax, fileName, fieldName);
+    }
+
     /**
      * Sets the file item headers.
      *
@@ -203,4 +225,38 @@ public class FileItemStreamImpl implements FileItemStream {
         this.headers = headers;
     }
 
+    /**
+     * Writes the remaining contents of this file item to the given output stream. Unlike copying from {@link #openStream()}, this writes directly from the
+     * {@link org.apache.commons.fileupload2.MultipartStream} buffer, as described in {@link ItemInputStream#transferTo(OutputStream)}. The file size limit
+     * is enforced before the bytes are written.
+     *
+     * @param output The output stream to write to.
+     * @return The number of bytes, which have been written.
+     * @throws IOException An I/O error occurred, or the file size limit has been exceeded.
+     * @since 2.0
+     */
+    public long transferTo(final OutputStream output) throws IOException {
+        if (inputStreamClosed) {
+            throw new FileItemStream.ItemSkippedException();
+        }
+        if (fileSizeMax == -1) {
+            return itemInputStream.transferTo(output);
+        }
+        return itemInputStream.transferTo(new FilterOutputStream(output) {
+            /**
+             * The number of bytes, which have been read so far.
+             */
+            private long count = itemInputStream.getBytesRead();
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                count += len;
+                if (count > fileSizeMax) {
+                    raiseFileSizeError(fileSizeMax, count);
+                }
+                out.write(b, off, len);
+            }
+        });
+    }
+
 }
@@ -0,0 +1,326 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.fileupload2.util.BufferPool;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Persists item contents on an executor, while the parsing thread continues to read the request.
+ * <p>
+ * The parsing thread reads the contents of an item in chunks, and hands them over to the executor, which writes them to the items output stream. At
+ * most {@code queueCapacity} chunks are pending. If the executor falls behind, then the parsing thread waits, so memory stays bounded, and a slow disk
+ * slows down reading the request. Chunks are written one at a time, in the order of their submission. If writing fails, then the remaining chunks are
+ * dropped, all output streams are still closed, and the failure is thrown to the parsing thread by its next call.
+ * </p>
+ * <p>
+ * If the executor rejects a task, then the parsing thread writes the pending chunks itself.
+ * </p>
+ *
+ * @see org.apache.commons.fileupload2.AbstractFileUpload#setWriteExecutor(Executor)
+ * @since 2.0
+ */
+public class PipelinedWriter {
+
+    /**
+     * A chunk of data, or, if {@link #buffer} is null, a request to close the output stream, and to run {@link #whenClosed}.
+     */
+    private static final class Chunk {
+
+        /**
+         * The stream, to which the data is written.
+         */
+        private final OutputStream outputStream;
+
+        /**
+         * The data, or null.
+         */
+        private final byte[] buffer;
+
+        /**
+         * The number of bytes in {@link #buffer}.
+         */
+        private final int length;
+
+        /**
+         * The action, which is run after the output stream has been closed successfully, or null.
+         */
+        private final Runnable whenClosed;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param outputStream The stream, to which the data is written.
+         * @param buffer       The data, or null.
+         * @param length       The number of bytes in {@code buffer}.
+         * @param whenClosed   The action, which is run after the output stream has been closed successfully, or null.
+         */
+        Chunk(final OutputStream outputStream, final byte[] buffer, final int length, final Runnable whenClosed) {
+            this.outputStream = outputStream;
+            this.buffer = buffer;
+            this.length = length;
+            this.whenClosed = whenClosed;
+        }
+
+    }
+
+    /**
+     * The default size of a chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The executor, which writes the chunks.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum number of pending chunks.
+     */
+    private final int queueCapacity;
+
+    /**
+     * The pool, from which chunks are borrowed, or null.
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * The size of a chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * The pending chunks.
+     */
+    private final Queue<Chunk> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of chunks, which may still be submitted.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The number of pending drain requests. A drain task runs, while this is positive.
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * The first failure of the writer, or null.
+     */
+    private volatile IOException error;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param executor      The executor, which writes the chunks.
+     * @param queueCapacity The maximum number of pending chunks.
+     * @param chunkSize     The size of a chunk.
+     * @param bufferPool    The pool, from which chunks are borrowed, or null.
+     */
+    public PipelinedWriter(final Executor executor, final int queueCapacity, final int chunkSize, final BufferPool bufferPool) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+        this.chunkSize = chunkSize;
+        this.bufferPool = bufferPool;
+        this.permits = new Semaphore(queueCapacity);
+    }
+
+    /**
+     * Waits, until all pending chunks have been written, and all output streams are closed. Used for cleanup, so failures aren't reported.
+     */
+    public void await() {
+        permits.acquireUninterruptibly(queueCapacity);
+        permits.release(queueCapacity);
+    }
+
+    /**
+     * Throws the first failure of the writer, if any.
+     *
+     * @throws IOException Writing has failed.
+     */
+    private void checkError() throws IOException {
+        final IOException e = error;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Writes all pending chunks, until there are no pending drain requests.
+     */
+    private void drain() {
+        int missed = 1;
+        do {
+            for (;;) {
+                final Chunk chunk = queue.poll();
+                if (chunk == null) {
+                    break;
+                }
+                write(chunk);
+                permits.release();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Submits a chunk, waiting for a free slot, if necessary.
+     *
+     * @param chunk         The chunk to submit.
+     * @param interruptible Whether waiting may be interrupted.
+     * @throws InterruptedIOException The thread has been interrupted, while waiting.
+     */
+    private void enqueue(final Chunk chunk, final boolean interruptible) throws InterruptedIOException {
+        if (interruptible) {
+            try {
+                permits.acquire();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted, while waiting for the writer");
+            }
+        } else {
+            permits.acquireUninterruptibly();
+        }
+        queue.add(chunk);
+        if (wip.getAndIncrement() == 0) {
+            try {
+                executor.execute(this::drain);
+            } catch (final RejectedExecutionException e) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Waits, until all pending chunks have been written, and all output streams are closed.
+     *
+     * @throws IOException Writing has failed.
+     */
+    public void finish() throws IOException {
+        await();
+        checkError();
+    }
+
+    /**
+     * Releases a chunks buffer.
+     *
+     * @param buffer The buffer.
+     */
+    private void release(final byte[] buffer) {
+        if (bufferPool != null) {
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads the given input stream to its end, and submits its contents for writing to the given output stream, which is closed afterwards. This
+     * method returns, as soon as the last chunk has been submitted, so the output stream may still be in use.
+     *
+     * @param inputStream  The stream, from which the contents are read.
+     * @param outputStream The stream, to which the contents are written. It is closed by the writer, even if this method fails.
+     * @throws IOException Reading has failed, or writing an earlier chunk has failed.
+     */
+    public void transfer(final InputStream inputStream, final OutputStream outputStream) throws IOException {
+        transfer(inputStream, outputStream, null);
+    }
+
+    /**
+     * Reads the given input stream to its end, and submits its contents for writing to the given output stream, which is closed afterwards. This
+     * method returns, as soon as the last chunk has been submitted, so the output stream may still be in use.
+     *
+     * @param inputStream  The stream, from which the contents are read.
+     * @param outputStream The stream, to which the contents are written. It is closed by the writer, even if this method fails.
+     * @param whenClosed   An action, which the writer runs after all contents have been written, and the output stream has been closed, or null. The
+     *                     action isn't run, if writing has failed, or this method fails.
+     * @throws IOException Reading has failed, or writing an earlier chunk has failed.
+     */
+    public void transfer(final InputStream inputStream, final OutputStream outputStream, final Runnable whenClosed) throws IOException {
+        boolean complete = false;
+        try {
+            for (;;) {
+                checkError();
+                final byte[] buffer = bufferPool == null ? new byte[chunkSize] : bufferPool.acquire(chunkSize);
+                final int length;
+                try {
+                    length = IOUtils.read(inputStream, buffer);
+                } catch (final IOException | RuntimeException e) {
+                    release(buffer);
+                    throw e;
+                }
+                if (length == 0) {
+                    release(buffer);
+                    break;
+                }
+                enqueue(new Chunk(outputStream, buffer, length, null), true);
+                if (length < buffer.length) {
+                    break;
+                }
+            }
+            complete = true;
+        } finally {
+            enqueue(new Chunk(outputStream, null, 0, complete ? whenClosed : null), false);
+        }
+    }
+
+    /**
+     * Writes, or closes a chunk, unless writing has already failed.
+     *
+     * @param chunk The chunk.
+     */
+    private void write(final Chunk chunk) {
+        try {
+            if (chunk.buffer == null) {
+                chunk.outputStream.close();
+                if (chunk.whenClosed != null && error == null) {
+                    chunk.whenClosed.run();
+                }
+            } else if (error == null) {
+                chunk.outputStream.write(chunk.buffer, 0, chunk.length);
+            }
+        } catch (final IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        } catch (final RuntimeException e) {
+            if (error == null) {
+                error = new IOException(e.getMessage(), e);
+            }
+        } finally {
+            if (chunk.buffer != null) {
+                release(chunk.buffer);
+            }
+        }
+    }
+
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.commons.fileupload2.jaksrvlt;
 
+import org.apache.commons.fileupload2.disk.FileCleaner;
 import org.apache.commons.io.FileCleaningTracker;
 
 import jakarta.servlet.ServletContext;
@@ -25,7 +26,8 @@ import jakarta.servlet.ServletContextListener;
 /**
  * A servlet context listener, which ensures that the
  * {@link FileCleaningTracker}'s reaper thread is terminated,
- * when the web application is destroyed.
+ * when the web application is destroyed. The same applies to
+ * the {@link FileCleaner}, which is stored along with the tracker.
  */
 public class JakSrvltFileCleaner implements ServletContextListener {
 
@@ -36,6 +38,25 @@ public class JakSrvltFileCleaner implements ServletContextListener {
     public static final String FILE_CLEANING_TRACKER_ATTRIBUTE
         = JakSrvltFileCleaner.class.getName() + ".FileCleaningTracker";
 
+    /**
+     * Attribute name, which is used for storing an instance of
+     * {@link FileCleaner} in the web application.
+     */
+    public static final String FILE_CLEANER_ATTRIBUTE
+        = JakSrvltFileCleaner.class.getName() + ".FileCleaner";
+
+    /**
+     * Gets the instance of {@link FileCleaner}, which is
+     * associated with the given {@link ServletContext}.
+     *
+     * @param servletContext The servlet context to query
+     * @return The contexts cleaner
+     * @since 2.0
+     */
+    public static FileCleaner getFileCleaner(final ServletContext servletContext) {
+        return (FileCleaner) servletContext.getAttribute(FILE_CLEANER_ATTRIBUTE);
+    }
+
     /**
      * Gets the instance of {@link FileCleaningTracker}, which is
      * associated with the given {@link ServletContext}.
@@ -61,9 +82,22 @@ public class JakSrvltFileCleaner implements ServletContextListener {
         servletContext.setAttribute(FILE_CLEANING_TRACKER_ATTRIBUTE, tracker);
     }
 
+    /**
+     * Sets the instance of {@link FileCleaner}, which is
+     * associated with the given {@link ServletContext}.
+     *
+     * @param servletContext The servlet context to modify
+     * @param fileCleaner The cleaner to set
+     * @since 2.0
+     */
+    public static void setFileCleaner(final ServletContext servletContext, final FileCleaner fileCleaner) {
+        servletContext.setAttribute(FILE_CLEANER_ATTRIBUTE, fileCleaner);
+    }
+
     /**
      * Called when the web application is being destroyed.
-     * Calls {@link FileCleaningTracker#exitWhenFinished()}.
+     * Calls {@link FileCleaningTracker#exitWhenFinished()}, and
+     * {@link FileCleaner#exitWhenFinished()}.
      *
      * @param sce The servlet context, used for calling
      *     {@link #getFileCleaningTracker(ServletContext)}.
@@ -71,18 +105,24 @@ public class JakSrvltFileCleaner implements ServletContextListener {
     @Override
     public void contextDestroyed(final ServletContextEvent sce) {
         getFileCleaningTracker(sce.getServletContext()).exitWhenFinished();
+        final FileCleaner fileCleaner = getFileCleaner(sce.getServletContext());
+        if (fileCleaner != null) {
+            fileCleaner.exitWhenFinished();
+        }
     }
 
     /**
-     * Called when the web application is initialized. Does
-     * nothing.
+     * Called when the web application is initialized. Creates
+     * the tracker, and the cleaner.
      *
      * @param sce The servlet context, used for calling
-     *   {@link #setFileCleaningTracker(ServletContext, FileCleaningTracker)}.
+     *   {@link #setFileCleaningTracker(ServletContext, FileCleaningTracker)},
+     *   and {@link #setFileCleaner(ServletContext, FileCleaner)}.
      */
     @Override
     public void contextInitialized(final ServletContextEvent sce) {
         setFileCleaningTracker(sce.getServletContext(),
                 new FileCleaningTracker());
+        setFileCleaner(sce.getServletContext(), new FileCleaner());
     }
 }
@@ -18,6 +18,7 @@ package org.apache.commons.fileupload2.jaksrvlt;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import org.apache.commons.fileupload2.AbstractFileUpload;
@@ -26,7 +27,11 @@ import org.apache.commons.fileupload2.FileItemFactory;
 import org.apache.commons.fileupload2.FileItemIterator;
 import org.apache.commons.fileupload2.FileUpload;
 import org.apache.commons.fileupload2.FileUploadException;
+import org.apache.commons.fileupload2.MultipartPushParser;
+import org.apache.commons.fileupload2.pub.FileUploadContentTypeException;
+import org.apache.commons.fileupload2.pub.FileUploadSizeException;
 
+import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.http.HttpServletRequest;
 
 /**
@@ -135,4 +140,65 @@ public class JakSrvltFileUpload extends FileUpload {
         return parseRequest(new JakSrvltRequestContext(request));
     }
 
+    /**
+     * Parses an <a href="http://www.ietf.org/rfc/rfc1867.txt">RFC 1867</a>
+     * compliant {@code multipart/form-data} stream asynchronously.
+     * <p>
+     * Puts the request into asynchronous mode, unless it is already,
+     * and registers a {@link JakSrvltReadListener}, which feeds the
+     * request body to a {@link MultipartPushParser}, as it arrives.
+     * No thread is held, while waiting for data. The parts are
+     * reported to the given listener, including the final
+     * {@link MultipartPushParser.Listener#completed() completion}, or
+     * {@link MultipartPushParser.Listener#failed(Throwable) failure},
+     * after which the listener is responsible for completing the
+     * {@link jakarta.servlet.AsyncContext}.
+     * </p>
+     * <p>
+     * The header encoding, the {@link #getSizeMax() request size limit},
+     * the {@link #getFileSizeMax() file size limit}, which applies to
+     * every part, the {@link #getFileCountMax() file count limit}, the
+     * {@link #getBoundarySearch() boundary search}, and the
+     * {@link #getBufferSize() buffer size} are taken from this object.
+     * </p>
+     *
+     * @param request The servlet request to be parsed.
+     * @param listener The listener, which receives the parts.
+     * @return The parser, which has been registered.
+     * @throws FileUploadException The request isn't a multipart request,
+     *   or its size exceeds the configured maximum.
+     * @throws IOException Obtaining the requests input stream failed.
+     * @since 2.0
+     */
+    public MultipartPushParser parseRequestAsync(final HttpServletRequest request, final MultipartPushParser.Listener listener)
+            throws FileUploadException, IOException {
+        final JakSrvltRequestContext ctx = new JakSrvltRequestContext(request);
+        final String contentType = ctx.getContentType();
+        if (contentType == null || !contentType.toLowerCase(Locale.ENGLISH).startsWith(MULTIPART)) {
+            throw new FileUploadContentTypeException(String.format("the request doesn't contain a %s or %s stream, content type header is %s",
+                    MULTIPART_FORM_DATA, MULTIPART_MIXED, contentType), contentType);
+        }
+        final long requestSize = ctx.getContentLength();
+        if (getSizeMax() >= 0 && requestSize != -1 && requestSize > getSizeMax()) {
+            throw new FileUploadSizeException(
+                    String.format("the request was rejected because its size (%s) exceeds the configured maximum (%s)", requestSize, getSizeMax()),
+                    getSizeMax(), requestSize);
+        }
+        final byte[] boundary = getBoundary(contentType);
+        if (boundary == null) {
+            throw new FileUploadException("the request was rejected because no multipart boundary was found");
+        }
+        final MultipartPushParser parser = new MultipartPushParser(boundary, listener, getBoundarySearch());
+        parser.setHeaderEncoding(getHeaderEncoding() == null ? ctx.getCharacterEncoding() : getHeaderEncoding());
+        parser.setSizeMax(getSizeMax());
+        parser.setPartSizeMax(getFileSizeMax());
+        parser.setPartCountMax(getFileCountMax());
+        if (!request.isAsyncStarted()) {
+            request.startAsync();
+        }
+        final ServletInputStream inputStream = request.getInputStream();
+        inputStream.setReadListener(new JakSrvltReadListener(inputStream, parser, getBufferSize(requestSize)));
+        return parser;
+    }
+
 }
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.jaksrvlt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.fileupload2.MultipartPushParser;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+
+/**
+ * A {@link ReadListener}, which feeds the request body to a {@link MultipartPushParser}, as it arrives. No container thread is held, while waiting for
+ * more data.
+ *
+ * @see JakSrvltFileUpload#parseRequestAsync(jakarta.servlet.http.HttpServletRequest, MultipartPushParser.Listener)
+ * @since 2.0
+ */
+public class JakSrvltReadListener implements ReadListener {
+
+    /**
+     * The input stream of the request.
+     */
+    private final ServletInputStream inputStream;
+
+    /**
+     * The parser, which receives the data.
+     */
+    private final MultipartPushParser parser;
+
+    /**
+     * The buffer, which is used for reading from {@link #inputStream}.
+     */
+    private final byte[] buffer;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param inputStream The input stream of the request, which must be in non-blocking mode.
+     * @param parser      The parser, which receives the data.
+     * @param bufferSize  The size of the read buffer.
+     */
+    public JakSrvltReadListener(final ServletInputStream inputStream, final MultipartPushParser parser, final int bufferSize) {
+        this.inputStream = inputStream;
+        this.parser = parser;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Signals the end of the input to the parser.
+     *
+     * @throws IOException The multipart stream is incomplete, or the listener has failed.
+     */
+    @Override
+    public void onAllDataRead() throws IOException {
+        if (!parser.isFailed()) {
+            parser.finish();
+        }
+    }
+
+    /**
+     * Feeds all data to the parser, which can be read without blocking.
+     *
+     * @throws IOException Reading, or parsing the data failed.
+     */
+    @Override
+    public void onDataAvailable() throws IOException {
+        if (parser.isFailed()) {
+            return;
+        }
+        try {
+            while (inputStream.isReady()) {
+                final int bytesRead = inputStream.read(buffer);
+                if (bytesRead == -1) {
+                    break;
+                }
+                parser.feed(ByteBuffer.wrap(buffer, 0, bytesRead));
+            }
+        } catch (final IOException | RuntimeException e) {
+            // Reading may have failed, in which case the parser doesn't know yet.
+            parser.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Signals the failure to the parser.
+     *
+     * @param t The reason for the failure.
+     */
+    @Override
+    public void onError(final Throwable t) {
+        parser.fail(t);
+    }
+
+}
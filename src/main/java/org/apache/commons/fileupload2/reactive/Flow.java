@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.reactive;
+
+/**
+ * Interrelated interfaces for establishing flow-controlled components, in which {@link Publisher Publishers} produce items consumed by one or more
+ * {@link Subscriber Subscribers}, each managed by a {@link Subscription Subscription}.
+ * <p>
+ * These interfaces have the same methods, and the same contracts, as those of {@code java.util.concurrent.Flow}, which was introduced in Java 9.
+ * </p>
+ *
+ * @since 2.0
+ */
+public final class Flow {
+
+    /**
+     * A producer of items, which are received by subscribers.
+     *
+     * @param <T> The published item type.
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+
+        /**
+         * Adds the given subscriber, if possible. If already subscribed, or the attempt to subscribe fails, then the subscribers {@code onError} method is
+         * invoked with an {@link IllegalStateException}. Otherwise, the subscribers {@code onSubscribe} method is invoked with a new subscription.
+         *
+         * @param subscriber The subscriber.
+         * @throws NullPointerException The subscriber is null.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+
+    }
+
+    /**
+     * A receiver of items. The methods are invoked in strict sequential order for each subscription.
+     *
+     * @param <T> The subscribed item type.
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Invoked, when the subscription is complete. No further methods are invoked for the subscription.
+         */
+        void onComplete();
+
+        /**
+         * Invoked upon an unrecoverable error. No further methods are invoked for the subscription.
+         *
+         * @param throwable The exception.
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Invoked with the subscriptions next item.
+         *
+         * @param item The item.
+         */
+        void onNext(T item);
+
+        /**
+         * Invoked prior to invoking any other methods for the given subscription.
+         *
+         * @param subscription A new subscription.
+         */
+        void onSubscribe(Subscription subscription);
+
+    }
+
+    /**
+     * Message control linking a {@link Publisher}, and a {@link Subscriber}.
+     */
+    public interface Subscription {
+
+        /**
+         * Causes the subscriber to (eventually) stop receiving messages.
+         */
+        void cancel();
+
+        /**
+         * Adds the given number of items to the current unfulfilled demand for this subscription. If {@code n} is not positive, then the subscriber
+         * receives an {@code onError} signal with an {@link IllegalArgumentException}.
+         *
+         * @param n The increment of demand; a value of {@code Long.MAX_VALUE} may be considered as effectively unbounded.
+         */
+        void request(long n);
+
+    }
+
+    /**
+     * Private constructor, to prevent instantiation.
+     */
+    private Flow() {
+        // Holder class
+    }
+
+}
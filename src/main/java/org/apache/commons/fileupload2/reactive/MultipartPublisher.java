@@ -0,0 +1,521 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.reactive;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.fileupload2.AbstractFileUpload;
+import org.apache.commons.fileupload2.FileItemHeaders;
+import org.apache.commons.fileupload2.FileItemIterator;
+import org.apache.commons.fileupload2.FileItemStream;
+import org.apache.commons.fileupload2.RequestContext;
+import org.apache.commons.fileupload2.impl.FileItemIteratorImpl;
+
+/**
+ * Publishes the parts of a multipart request, each with a publisher for its body.
+ * <p>
+ * The request is read only as far as the subscribers demand: The next part is parsed, when the part subscriber has requested it, and the current parts
+ * body has been completed, or cancelled. A chunk of the body is read, when the body subscriber has requested it. Consequently, at most one chunk, and
+ * the {@link org.apache.commons.fileupload2.MultipartStream} buffer, are held in memory per request. Cancelling a body skips the remaining bytes of the
+ * part. The body of a part must be subscribed, and consumed, or cancelled, before the next part is published.
+ * </p>
+ * <p>
+ * All reading, and all signals, happen on the given executor, one task at a time. No thread waits for demand. However, reading the request is
+ * blocking I/O, unless the {@link RequestContext} is backed by data, which is already available.
+ * </p>
+ * <p>
+ * A publisher supports a single subscriber.
+ * </p>
+ *
+ * @since 2.0
+ */
+public class MultipartPublisher implements Flow.Publisher<MultipartPublisher.Part> {
+
+    /**
+     * A part of a multipart request.
+     */
+    public final class Part {
+
+        /**
+         * The underlying item.
+         */
+        private final FileItemStream item;
+
+        /**
+         * Whether the body has been subscribed.
+         */
+        private final AtomicBoolean bodySubscribed = new AtomicBoolean();
+
+        /**
+         * The body subscriber, which is set after {@code onSubscribe} has returned.
+         */
+        private volatile Flow.Subscriber<? super ByteBuffer> bodySubscriber;
+
+        /**
+         * The unfulfilled demand of the body subscriber.
+         */
+        private final AtomicLong bodyDemand = new AtomicLong();
+
+        /**
+         * Whether the body subscription has been cancelled.
+         */
+        private volatile boolean bodyCancelled;
+
+        /**
+         * An invalid request of the body subscriber, which must be signaled, or null.
+         */
+        private volatile Throwable bodyRequestError;
+
+        /**
+         * Whether the body is complete, or cancelled. Accessed by the drain loop only.
+         */
+        private boolean finished;
+
+        /**
+         * The items input stream, once it has been opened. Accessed by the drain loop only.
+         */
+        private InputStream inputStream;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param item The underlying item.
+         */
+        Part(final FileItemStream item) {
+            this.item = item;
+        }
+
+        /**
+         * Gets a publisher for the parts body. The publisher supports a single subscriber, which receives the body in chunks of up to
+         * {@link MultipartPublisher#getChunkSize()} bytes. The buffers are owned by the subscriber.
+         *
+         * @return The body publisher.
+         */
+        public Flow.Publisher<ByteBuffer> getBody() {
+            return this::subscribeBody;
+        }
+
+        /**
+         * Gets the content type, which has been passed by the browser, or null.
+         *
+         * @return The content type, or null.
+         */
+        public String getContentType() {
+            return item.getContentType();
+        }
+
+        /**
+         * Gets the name of the field in the multipart form.
+         *
+         * @return The field name.
+         */
+        public String getFieldName() {
+            return item.getFieldName();
+        }
+
+        /**
+         * Gets the headers of the part.
+         *
+         * @return The headers.
+         */
+        public FileItemHeaders getHeaders() {
+            return item.getHeaders();
+        }
+
+        /**
+         * Gets the original file name in the clients file system, as provided by the browser, or null.
+         *
+         * @return The file name, or null.
+         */
+        public String getName() {
+            return item.getName();
+        }
+
+        /**
+         * Tests, whether the part represents a simple form field.
+         *
+         * @return True, if the part is a form field, false, if it is an uploaded file.
+         */
+        public boolean isFormField() {
+            return item.isFormField();
+        }
+
+        /**
+         * Subscribes to the body.
+         *
+         * @param subscriber The body subscriber.
+         */
+        private void subscribeBody(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+            Objects.requireNonNull(subscriber, "subscriber");
+            if (!bodySubscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(EMPTY_SUBSCRIPTION);
+                subscriber.onError(new IllegalStateException("The body has already been subscribed"));
+                return;
+            }
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void cancel() {
+                    bodyCancelled = true;
+                    schedule();
+                }
+
+                @Override
+                public void request(final long n) {
+                    if (n <= 0) {
+                        bodyRequestError = new IllegalArgumentException("Non-positive request: " + n);
+                    } else {
+                        addDemand(bodyDemand, n);
+                    }
+                    schedule();
+                }
+            });
+            bodySubscriber = subscriber;
+            schedule();
+        }
+
+    }
+
+    /**
+     * The default size of a body chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * A subscription, which is passed to rejected subscribers.
+     */
+    private static final Flow.Subscription EMPTY_SUBSCRIPTION = new Flow.Subscription() {
+        @Override
+        public void cancel() {
+            // Nothing to do
+        }
+
+        @Override
+        public void request(final long n) {
+            // Nothing to do
+        }
+    };
+
+    /**
+     * Adds demand, capping at {@code Long.MAX_VALUE}.
+     *
+     * @param demand The demand counter.
+     * @param n      The positive increment.
+     */
+    private static void addDemand(final AtomicLong demand, final long n) {
+        demand.accumulateAndGet(n, (current, increment) -> current + increment < 0 ? Long.MAX_VALUE : current + increment);
+    }
+
+    /**
+     * Consumes one unit of demand, unless the demand is unbounded.
+     *
+     * @param demand The demand counter.
+     */
+    private static void consumeDemand(final AtomicLong demand) {
+        demand.accumulateAndGet(1, (current, decrement) -> current == Long.MAX_VALUE ? current : current - decrement);
+    }
+
+    /**
+     * The file upload processing utility, which provides the settings.
+     */
+    private final AbstractFileUpload fileUpload;
+
+    /**
+     * The request to parse.
+     */
+    private final RequestContext requestContext;
+
+    /**
+     * The executor, which runs the drain loop.
+     */
+    private final Executor executor;
+
+    /**
+     * The maximum size of a body chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * Whether the publisher has been subscribed.
+     */
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * The part subscriber, which is set after {@code onSubscribe} has returned.
+     */
+    private volatile Flow.Subscriber<? super Part> subscriber;
+
+    /**
+     * The unfulfilled demand of the part subscriber.
+     */
+    private final AtomicLong demand = new AtomicLong();
+
+    /**
+     * Whether the part subscription has been cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * An invalid request of the part subscriber, which must be signaled, or null.
+     */
+    private volatile Throwable requestError;
+
+    /**
+     * The number of pending drain requests. The drain loop runs, while this is positive.
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * The iterator, which parses the request. Accessed by the drain loop only.
+     */
+    private FileItemIterator iterator;
+
+    /**
+     * The part, which has been published last. Accessed by the drain loop only.
+     */
+    private Part current;
+
+    /**
+     * The reason, why publishing has ended, or null. Accessed by the drain loop only.
+     */
+    private Throwable terminalError;
+
+    /**
+     * Whether publishing has ended. Accessed by the drain loop only.
+     */
+    private boolean done;
+
+    /**
+     * Creates a new instance with the {@link #DEFAULT_CHUNK_SIZE default chunk size}.
+     *
+     * @param fileUpload     The file upload processing utility, which provides the settings.
+     * @param requestContext The request to parse.
+     * @param executor       The executor, which reads the request, and signals the subscribers.
+     */
+    public MultipartPublisher(final AbstractFileUpload fileUpload, final RequestContext requestContext, final Executor executor) {
+        this(fileUpload, requestContext, executor, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param fileUpload     The file upload processing utility, which provides the settings.
+     * @param requestContext The request to parse.
+     * @param executor       The executor, which reads the request, and signals the subscribers.
+     * @param chunkSize      The maximum size of a body chunk.
+     */
+    public MultipartPublisher(final AbstractFileUpload fileUpload, final RequestContext requestContext, final Executor executor, final int chunkSize) {
+        this.fileUpload = Objects.requireNonNull(fileUpload, "fileUpload");
+        this.requestContext = Objects.requireNonNull(requestContext, "requestContext");
+        this.executor = Objects.requireNonNull(executor, "executor");
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Runs the drain loop, until there are no pending drain requests.
+     */
+    private void drain() {
+        int missed = 1;
+        do {
+            drainLoop();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Emits signals, as long as there is demand.
+     */
+    private void drainLoop() {
+        final Flow.Subscriber<? super Part> s = subscriber;
+        if (s == null) {
+            return;
+        }
+        try {
+            for (;;) {
+                if (done) {
+                    terminateBody(current);
+                    return;
+                }
+                if (cancelled) {
+                    terminate(new CancellationException("The part subscription has been cancelled"));
+                    return;
+                }
+                if (requestError != null) {
+                    terminate(requestError);
+                    s.onError(terminalError);
+                    return;
+                }
+                final Part part = current;
+                if (part != null && !part.finished) {
+                    if (!drainBody(part)) {
+                        return;
+                    }
+                    continue;
+                }
+                if (demand.get() == 0) {
+                    return;
+                }
+                if (iterator == null) {
+                    iterator = fileUpload.getItemIterator(requestContext);
+                }
+                if (!iterator.hasNext()) {
+                    terminate(new IllegalStateException("All parts have been published"));
+                    s.onComplete();
+                    return;
+                }
+                current = new Part(iterator.next());
+                consumeDemand(demand);
+                s.onNext(current);
+            }
+        } catch (final Exception e) {
+            if (!done) {
+                terminate(e);
+                s.onError(e);
+            }
+        }
+    }
+
+    /**
+     * Emits the next body signal of the given part, if possible.
+     *
+     * @param part The current part.
+     * @return True, if a signal has been emitted, false, if the part is waiting for its subscriber, or for demand.
+     * @throws Exception Reading the body failed.
+     */
+    private boolean drainBody(final Part part) throws Exception {
+        if (part.bodyCancelled) {
+            // The iterator skips the rest of the body, when the next part is requested.
+            part.finished = true;
+            return true;
+        }
+        final Flow.Subscriber<? super ByteBuffer> bs = part.bodySubscriber;
+        if (bs == null) {
+            return false;
+        }
+        if (part.bodyRequestError != null) {
+            part.finished = true;
+            bs.onError(part.bodyRequestError);
+            return true;
+        }
+        if (part.bodyDemand.get() == 0) {
+            return false;
+        }
+        if (part.inputStream == null) {
+            part.inputStream = part.item.openStream();
+        }
+        final byte[] chunk = new byte[chunkSize];
+        final int bytesRead;
+        try {
+            bytesRead = part.inputStream.read(chunk);
+        } catch (final Exception e) {
+            part.finished = true;
+            bs.onError(e);
+            throw e;
+        }
+        if (bytesRead == -1) {
+            part.finished = true;
+            bs.onComplete();
+            return true;
+        }
+        consumeDemand(part.bodyDemand);
+        bs.onNext(ByteBuffer.wrap(chunk, 0, bytesRead));
+        return true;
+    }
+
+    /**
+     * Gets the maximum size of a body chunk.
+     *
+     * @return The chunk size.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Requests a run of the drain loop.
+     */
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super Part> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(EMPTY_SUBSCRIPTION);
+            subscriber.onError(new IllegalStateException("The publisher supports a single subscriber only"));
+            return;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void cancel() {
+                cancelled = true;
+                schedule();
+            }
+
+            @Override
+            public void request(final long n) {
+                if (n <= 0) {
+                    requestError = new IllegalArgumentException("Non-positive request: " + n);
+                } else {
+                    addDemand(demand, n);
+                }
+                schedule();
+            }
+        });
+        this.subscriber = subscriber;
+        schedule();
+    }
+
+    /**
+     * Ends publishing, and releases the resources of the request.
+     *
+     * @param cause The reason, which is signaled to a pending body subscriber.
+     */
+    private void terminate(final Throwable cause) {
+        done = true;
+        terminalError = cause;
+        if (iterator instanceof FileItemIteratorImpl) {
+            ((FileItemIteratorImpl) iterator).releaseBuffer();
+        }
+        terminateBody(current);
+    }
+
+    /**
+     * Signals the end of publishing to the body subscriber of the given part, unless the body is already finished.
+     *
+     * @param part The current part, or null.
+     */
+    private void terminateBody(final Part part) {
+        if (part != null && !part.finished && part.bodySubscriber != null) {
+            part.finished = true;
+            part.bodySubscriber.onError(terminalError);
+        }
+    }
+
+}
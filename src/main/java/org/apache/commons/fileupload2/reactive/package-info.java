@@ -0,0 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A reactive API for processing multipart requests, which honors backpressure.
+ * <p>
+ * The interfaces in {@link org.apache.commons.fileupload2.reactive.Flow} mirror those of {@code java.util.concurrent.Flow}, which isn't available on
+ * Java 8. Adapting them to the JDK interfaces, or to Reactive Streams, only requires delegating method calls.
+ * </p>
+ * <pre>
+ *        JakSrvltFileUpload upload = new JakSrvltFileUpload();
+ *        MultipartPublisher publisher = new MultipartPublisher(upload, new JakSrvltRequestContext(request), executor);
+ *        publisher.subscribe(partSubscriber);
+ * </pre>
+ *
+ * @since 2.0
+ */
+package org.apache.commons.fileupload2.reactive;
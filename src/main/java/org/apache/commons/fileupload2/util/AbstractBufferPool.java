@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe pool of buffers, which are grouped into size classes.
+ * <p>
+ * Size classes are powers of two between the minimum, and the configured maximum size. Every size class holds a fixed number of slots. Threads start
+ * searching for a free slot at a position derived from their id, so that concurrent requests seldom compete for the same slot. A request for a buffer,
+ * which can't be served from the pool, is served by allocating a new buffer. A buffer, which is returned to a full size class, is left to the garbage
+ * collector. Thus, the pool never holds more than {@code buffersPerSizeClass} buffers of each size.
+ * </p>
+ * <p>
+ * Subclasses provide the buffer type by implementing {@link #allocate(int)}, and {@link #capacity(Object)}.
+ * </p>
+ *
+ * @param <T> The buffer type.
+ * @see BufferPool
+ * @see DirectBufferPool
+ * @since 2.0
+ */
+public abstract class AbstractBufferPool<T> {
+
+    /**
+     * The size of the smallest size class.
+     */
+    private final int minBufferSize;
+
+    /**
+     * The number of bits, by which {@link #minBufferSize} is shifted.
+     */
+    private final int minShift;
+
+    /**
+     * The slots, indexed by size class.
+     */
+    private final AtomicReferenceArray<T>[] sizeClasses;
+
+    /**
+     * The number of buffers, which have been served from the pool.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of buffers, which had to be allocated, because the pool couldn't serve them.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param minBufferSize       The size of the smallest size class, which must be a power of two.
+     * @param maxBufferSize       The size of the largest buffer, which is being pooled. Rounded up to the next power of two. Larger buffers are always
+     *                            allocated.
+     * @param buffersPerSizeClass The maximum number of buffers, which are being held for each size class.
+     * @throws IllegalArgumentException Either of the arguments is out of range.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected AbstractBufferPool(final int minBufferSize, final int maxBufferSize, final int buffersPerSizeClass) {
+        if (minBufferSize < 1 || Integer.bitCount(minBufferSize) != 1) {
+            throw new IllegalArgumentException("Invalid minimum buffer size: " + minBufferSize);
+        }
+        if (maxBufferSize < minBufferSize || maxBufferSize > 1 << (Integer.SIZE - 2)) {
+            throw new IllegalArgumentException("Invalid maximum buffer size: " + maxBufferSize);
+        }
+        if (buffersPerSizeClass < 1) {
+            throw new IllegalArgumentException("Invalid number of buffers per size class: " + buffersPerSizeClass);
+        }
+        this.minBufferSize = minBufferSize;
+        this.minShift = Integer.numberOfTrailingZeros(minBufferSize);
+        sizeClasses = new AtomicReferenceArray[getSizeClass(maxBufferSize) + 1];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new AtomicReferenceArray<>(buffersPerSizeClass);
+        }
+    }
+
+    /**
+     * Tests, whether the given buffer may be pooled. This is called for buffers, which are {@link #release(Object) released}, and whose capacity
+     * matches a size class.
+     *
+     * @param buffer The buffer, which is being released.
+     * @return True, if the buffer may be pooled. The default implementation returns true.
+     */
+    protected boolean accepts(final T buffer) {
+        return true;
+    }
+
+    /**
+     * Borrows a buffer from the pool. The buffer should be returned by calling {@link #release(Object)}, when it is no longer used.
+     *
+     * @param minSize The minimum size of the buffer.
+     * @return A buffer with at least {@code minSize} bytes. If {@code minSize} is within the pooled range, then the size is rounded up to the next power of
+     *         two.
+     */
+    public T acquire(final int minSize) {
+        final int sizeClass = getSizeClass(minSize);
+        if (sizeClass >= sizeClasses.length) {
+            misses.increment();
+            return allocate(minSize);
+        }
+        final AtomicReferenceArray<T> slots = sizeClasses[sizeClass];
+        final int length = slots.length();
+        final int start = getStripe(length);
+        for (int i = 0; i < length; i++) {
+            final int index = (start + i) % length;
+            final T buffer = slots.get(index);
+            if (buffer != null && slots.compareAndSet(index, buffer, null)) {
+                hits.increment();
+                recycle(buffer);
+                return buffer;
+            }
+        }
+        misses.increment();
+        return allocate(minBufferSize << sizeClass);
+    }
+
+    /**
+     * Allocates a new buffer.
+     *
+     * @param size The size of the buffer.
+     * @return The new buffer.
+     */
+    protected abstract T allocate(int size);
+
+    /**
+     * Gets the size of the given buffer.
+     *
+     * @param buffer The buffer.
+     * @return The buffer's size, in bytes.
+     */
+    protected abstract int capacity(T buffer);
+
+    /**
+     * Gets the number of buffers, which have been served from the pool.
+     *
+     * @return The number of pool hits.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of buffers, which couldn't be served from the pool, and had to be allocated.
+     *
+     * @return The number of pool misses.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the size class for buffers of the given size.
+     *
+     * @param size The buffer size.
+     * @return The index of the smallest size class, which holds buffers of at least the given size.
+     */
+    private int getSizeClass(final int size) {
+        if (size <= minBufferSize) {
+            return 0;
+        }
+        return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1) - minShift;
+    }
+
+    /**
+     * Gets the slot, at which the current thread starts its search.
+     *
+     * @param length The number of slots.
+     * @return The index of the first slot to inspect.
+     */
+    private static int getStripe(final int length) {
+        return (int) (Thread.currentThread().getId() % length);
+    }
+
+    /**
+     * Prepares a pooled buffer for reuse, before it is served by {@link #acquire(int)}. The default implementation does nothing.
+     *
+     * @param buffer The buffer, which is about to be served.
+     */
+    protected void recycle(final T buffer) {
+        // Nothing to do by default.
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use the buffer afterwards. Buffers, which haven't been obtained from {@link #acquire(int)}, are
+     * accepted, as long as their size matches a size class.
+     *
+     * @param buffer The buffer to return, may be null.
+     */
+    public void release(final T buffer) {
+        if (buffer == null) {
+            return;
+        }
+        final int capacity = capacity(buffer);
+        if (capacity < minBufferSize || Integer.bitCount(capacity) != 1 || !accepts(buffer)) {
+            return;
+        }
+        final int sizeClass = getSizeClass(capacity);
+        if (sizeClass >= sizeClasses.length) {
+            return;
+        }
+        final AtomicReferenceArray<T> slots = sizeClasses[sizeClass];
+        final int length = slots.length();
+        final int start = getStripe(length);
+        for (int i = 0; i < length; i++) {
+            final int index = (start + i) % length;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+}
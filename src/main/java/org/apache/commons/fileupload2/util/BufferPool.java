@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.util;
+
+/**
+ * A bounded, thread-safe pool of byte arrays, which are used as I/O buffers while parsing requests.
+ * <p>
+ * Buffers are grouped into size classes, which are powers of two between {@link #MIN_BUFFER_SIZE}, and the configured maximum size. Every size class holds
+ * a fixed number of slots. Threads start searching for a free slot at a position derived from their id, so that concurrent requests seldom compete for the
+ * same slot. A request for a buffer, which can't be served from the pool, is served by allocating a new buffer. A buffer, which is returned to a full size
+ * class, is left to the garbage collector. Thus, the pool never holds more than {@code buffersPerSizeClass} buffers of each size.
+ * </p>
+ * <p>
+ * Pooled buffers aren't cleared, when they are returned. Callers must not expect a new buffer to be filled with zeros.
+ * </p>
+ *
+ * @see org.apache.commons.fileupload2.AbstractFileUpload#setBufferPool(BufferPool)
+ * @since 2.0
+ */
+public class BufferPool extends AbstractBufferPool<byte[]> {
+
+    /**
+     * The size of the smallest size class.
+     */
+    public static final int MIN_BUFFER_SIZE = 1024;
+
+    /**
+     * The default size of the largest size class.
+     */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Constructs a new instance with the {@link #DEFAULT_MAX_BUFFER_SIZE default maximum buffer size}, and two buffers per size class and processor.
+     */
+    public BufferPool() {
+        this(DEFAULT_MAX_BUFFER_SIZE, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxBufferSize       The size of the largest buffer, which is being pooled. Rounded up to the next power of two. Larger buffers are always
+     *                            allocated.
+     * @param buffersPerSizeClass The maximum number of buffers, which are being held for each size class.
+     * @throws IllegalArgumentException Either of the arguments is out of range.
+     */
+    public BufferPool(final int maxBufferSize, final int buffersPerSizeClass) {
+        super(MIN_BUFFER_SIZE, maxBufferSize, buffersPerSizeClass);
+    }
+
+    @Override
+    protected byte[] allocate(final int size) {
+        return new byte[size];
+    }
+
+    @Override
+    protected int capacity(final byte[] buffer) {
+        return buffer.length;
+    }
+
+}
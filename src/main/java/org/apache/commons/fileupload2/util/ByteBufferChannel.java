@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.util;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read-only {@link SeekableByteChannel}, which reads the contents of a {@link ByteBuffer}. The buffer isn't copied. This is the channel counterpart
+ * of {@link ByteBufferInputStream}.
+ *
+ * @since 2.0
+ */
+public class ByteBufferChannel implements SeekableByteChannel {
+
+    /**
+     * The contents, from position zero to the limit.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Whether the channel is open.
+     */
+    private boolean open = true;
+
+    /**
+     * Creates a new instance, which reads the remaining bytes of the given buffer.
+     *
+     * @param buffer The buffer to read. Its position, and limit are not modified.
+     */
+    public ByteBufferChannel(final ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    /**
+     * Throws, if the channel is closed.
+     *
+     * @throws ClosedChannelException The channel is closed.
+     */
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public long position() throws ClosedChannelException {
+        checkOpen();
+        return buffer.position();
+    }
+
+    @Override
+    public SeekableByteChannel position(final long newPosition) throws ClosedChannelException {
+        checkOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        buffer.position((int) Math.min(newPosition, buffer.limit()));
+        return this;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws ClosedChannelException {
+        checkOpen();
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        final int n = Math.min(dst.remaining(), buffer.remaining());
+        final ByteBuffer src = buffer.duplicate();
+        src.limit(src.position() + n);
+        dst.put(src);
+        buffer.position(buffer.position() + n);
+        return n;
+    }
+
+    @Override
+    public long size() throws ClosedChannelException {
+        checkOpen();
+        return buffer.limit();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(final long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public int write(final ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+}
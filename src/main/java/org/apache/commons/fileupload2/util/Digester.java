@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Computes one, or more digests of a stream, while it is being written, or read, so that the data needn't be read a second time.
+ * <p>
+ * Supported algorithms are those of {@link MessageDigest}, like "SHA-256", or "MD5", and the checksums {@link #CRC32}, and {@link #CRC32C}, which are
+ * returned as four bytes in big endian order. CRC32C requires Java 9, or later.
+ * </p>
+ * <p>
+ * With the streaming API, wrap the stream of an item:
+ * </p>
+ * <pre>
+ *   Digester digester = new Digester("SHA-256");
+ *   try (InputStream in = digester.wrap(item.openStream())) {
+ *       ...
+ *   }
+ *   byte[] sha256 = digester.getDigest("SHA-256");
+ * </pre>
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ *
+ * @see org.apache.commons.fileupload2.disk.DiskFileItemFactory#setDigestAlgorithms(String...)
+ * @since 2.0
+ */
+public class Digester {
+
+    /**
+     * A digest algorithm, which is being updated.
+     */
+    private interface Engine {
+
+        /**
+         * Completes the computation.
+         *
+         * @return The digest.
+         */
+        byte[] finish();
+
+        /**
+         * Updates the digest.
+         *
+         * @param b   The array, which holds the data.
+         * @param off The offset of the data.
+         * @param len The number of bytes.
+         */
+        void update(byte[] b, int off, int len);
+
+    }
+
+    /**
+     * The name of the CRC32 checksum algorithm.
+     */
+    public static final String CRC32 = "CRC32";
+
+    /**
+     * The name of the CRC32C checksum algorithm.
+     */
+    public static final String CRC32C = "CRC32C";
+
+    /**
+     * Creates an engine for the given checksum.
+     *
+     * @param checksum The checksum.
+     * @return The engine.
+     */
+    private static Engine newEngine(final Checksum checksum) {
+        return new Engine() {
+            @Override
+            public byte[] finish() {
+                return ByteBuffer.allocate(Integer.BYTES).putInt((int) checksum.getValue()).array();
+            }
+
+            @Override
+            public void update(final byte[] b, final int off, final int len) {
+                checksum.update(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Creates an engine for the given algorithm.
+     *
+     * @param algorithm The algorithm name.
+     * @return The engine.
+     * @throws IllegalArgumentException The algorithm isn't available.
+     */
+    private static Engine newEngine(final String algorithm) {
+        final String upperCase = algorithm.toUpperCase(Locale.ENGLISH);
+        if (CRC32.equals(upperCase)) {
+            return newEngine(new CRC32());
+        }
+        if (CRC32C.equals(upperCase)) {
+            try {
+                // Java 9, or later.
+                return newEngine((Checksum) Class.forName("java.util.zip.CRC32C").getConstructor().newInstance());
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalArgumentException("The algorithm " + algorithm + " requires Java 9, or later", e);
+            }
+        }
+        final MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+        }
+        return new Engine() {
+            @Override
+            public byte[] finish() {
+                return messageDigest.digest();
+            }
+
+            @Override
+            public void update(final byte[] b, final int off, final int len) {
+                messageDigest.update(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * The algorithm names, as given by the caller.
+     */
+    private final String[] algorithms;
+
+    /**
+     * The engines, one per algorithm.
+     */
+    private final Engine[] engines;
+
+    /**
+     * The digests, once they have been computed, or null.
+     */
+    private Map<String, byte[]> digests;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param algorithms The names of the algorithms, which are computed.
+     * @throws IllegalArgumentException One of the algorithms isn't available.
+     */
+    public Digester(final String... algorithms) {
+        this.algorithms = algorithms.clone();
+        this.engines = new Engine[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            engines[i] = newEngine(algorithms[i]);
+        }
+    }
+
+    /**
+     * Gets the names of the algorithms, which are computed.
+     *
+     * @return The algorithm names.
+     */
+    public String[] getAlgorithms() {
+        return algorithms.clone();
+    }
+
+    /**
+     * Gets the digest, which has been computed by the given algorithm. Completes the computation.
+     *
+     * @param algorithm The algorithm name, as passed to the constructor.
+     * @return The digest, or null, if the algorithm isn't computed.
+     */
+    public byte[] getDigest(final String algorithm) {
+        final byte[] digest = getDigests().get(algorithm);
+        return digest == null ? null : digest.clone();
+    }
+
+    /**
+     * Gets the computed digests. Completes the computation, so no more data may be added afterwards.
+     *
+     * @return A map of algorithm names, as passed to the constructor, to digests. The map is in the order of the algorithms.
+     */
+    public Map<String, byte[]> getDigests() {
+        if (digests == null) {
+            final Map<String, byte[]> map = new LinkedHashMap<>();
+            for (int i = 0; i < engines.length; i++) {
+                map.put(algorithms[i], engines[i].finish());
+            }
+            digests = Collections.unmodifiableMap(map);
+        }
+        return digests;
+    }
+
+    /**
+     * Adds data to all digests.
+     *
+     * @param b   The array, which holds the data.
+     * @param off The offset of the data.
+     * @param len The number of bytes.
+     * @throws IllegalStateException The digests have already been completed.
+     */
+    public void update(final byte[] b, final int off, final int len) {
+        if (digests != null) {
+            throw new IllegalStateException("The digests have already been completed");
+        }
+        for (final Engine engine : engines) {
+            engine.update(b, off, len);
+        }
+    }
+
+    /**
+     * Creates an input stream, which adds all data, that is read, to the digests.
+     *
+     * @param inputStream The stream, which is being read.
+     * @return The wrapping stream.
+     */
+    public InputStream wrap(final InputStream inputStream) {
+        return new FilterInputStream(inputStream) {
+            @Override
+            public void mark(final int readlimit) {
+                // Not supported
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b != -1) {
+                    update(new byte[] {(byte) b}, 0, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int res = super.read(b, off, len);
+                if (res > 0) {
+                    update(b, off, res);
+                }
+                return res;
+            }
+
+            @Override
+            public void reset() throws IOException {
+                throw new IOException("mark/reset not supported");
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                // Skipped bytes must be digested, too.
+                if (n <= 0) {
+                    return 0;
+                }
+                final byte[] buffer = new byte[(int) Math.min(n, IOUtils.DEFAULT_BUFFER_SIZE)];
+                long remaining = n;
+                while (remaining > 0) {
+                    final int res = read(buffer, 0, (int) Math.min(remaining, buffer.length));
+                    if (res == -1) {
+                        break;
+                    }
+                    remaining -= res;
+                }
+                return n - remaining;
+            }
+        };
+    }
+
+    /**
+     * Creates an output stream, which adds all data, that is written, to the digests.
+     *
+     * @param outputStream The stream, which is being written.
+     * @return The wrapping stream.
+     */
+    public OutputStream wrap(final OutputStream outputStream) {
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                update(b, off, len);
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void write(final int b) throws IOException {
+                update(new byte[] {(byte) b}, 0, 1);
+                out.write(b);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded, thread-safe pool of direct {@link ByteBuffer byte buffers}, which hold the contents of small items outside of the heap.
+ * <p>
+ * This is the off-heap counterpart of {@link BufferPool}: Buffers are grouped into size classes, which are powers of two between
+ * {@link #MIN_BUFFER_SIZE}, and the configured maximum size, and every size class holds a fixed number of slots. A buffer, which is released, is
+ * immediately available to the next request, so the memory of deleted items is reused deterministically, rather than when the garbage collector frees
+ * it. Buffers, which can't be served from the pool, are allocated, and left to the garbage collector, when they are released to a full size class.
+ * Buffers are cleared, when they are served, and heap buffers are never pooled.
+ * </p>
+ *
+ * @see org.apache.commons.fileupload2.disk.DiskFileItemFactory#setDirectBufferPool(DirectBufferPool)
+ * @since 2.0
+ */
+public class DirectBufferPool extends AbstractBufferPool<ByteBuffer> {
+
+    /**
+     * The size of the smallest size class.
+     */
+    public static final int MIN_BUFFER_SIZE = 4096;
+
+    /**
+     * The default size of the largest size class.
+     */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The default number of buffers per size class.
+     */
+    public static final int DEFAULT_BUFFERS_PER_SIZE_CLASS = 16;
+
+    /**
+     * Constructs a new instance with the {@link #DEFAULT_MAX_BUFFER_SIZE default maximum buffer size}, and
+     * {@link #DEFAULT_BUFFERS_PER_SIZE_CLASS the default number of buffers per size class}.
+     */
+    public DirectBufferPool() {
+        this(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_BUFFERS_PER_SIZE_CLASS);
+    }
+
+    /**
+     * Constructs a new instance. The pool holds up to {@code buffersPerSizeClass} buffers of every size class, so it retains at most twice
+     * {@code buffersPerSizeClass * maxBufferSize} bytes of direct memory.
+     *
+     * @param maxBufferSize       The size of the largest buffer, which is being pooled. Rounded up to the next power of two. Larger buffers are always
+     *                            allocated.
+     * @param buffersPerSizeClass The maximum number of buffers, which are being held for each size class.
+     * @throws IllegalArgumentException Either of the arguments is out of range.
+     */
+    public DirectBufferPool(final int maxBufferSize, final int buffersPerSizeClass) {
+        super(MIN_BUFFER_SIZE, maxBufferSize, buffersPerSizeClass);
+    }
+
+    @Override
+    protected boolean accepts(final ByteBuffer buffer) {
+        return buffer.isDirect();
+    }
+
+    @Override
+    protected ByteBuffer allocate(final int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    @Override
+    protected int capacity(final ByteBuffer buffer) {
+        return buffer.capacity();
+    }
+
+    @Override
+    protected void recycle(final ByteBuffer buffer) {
+        buffer.clear();
+    }
+
+}
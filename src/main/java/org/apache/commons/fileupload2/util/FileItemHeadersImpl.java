@@ -24,6 +24,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.fileupload2.FileItemHeaders;
 
@@ -44,15 +46,26 @@ public class FileItemHeadersImpl implements FileItemHeaders, Serializable {
      */
     private final Map<String, List<String>> headerNameToValueListMap = new LinkedHashMap<>();
 
+    /**
+     * Guards modifications of {@link #headerNameToValueListMap}. This is a lock, rather than a monitor, so that a virtual thread, which adds a header, never
+     * pins its carrier thread.
+     */
+    private final transient Lock lock = new ReentrantLock();
+
     /**
      * Method to add header values to this instance.
      *
      * @param name  name of this header
      * @param value value of this header
      */
-    public synchronized void addHeader(final String name, final String value) {
-        final List<String> headerValueList = headerNameToValueListMap.computeIfAbsent(toLowerCase(name), k -> new ArrayList<>());
-        headerValueList.add(value);
+    public void addHeader(final String name, final String value) {
+        final String key = toLowerCase(name);
+        lock.lock();
+        try {
+            headerNameToValueListMap.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -91,6 +104,17 @@ public class FileItemHeadersImpl implements FileItemHeaders, Serializable {
         return headerNameToValueListMap.get(toLowerCase(name));
     }
 
+    /**
+     * Replaces a deserialized instance with a copy, which has a lock.
+     *
+     * @return The copy.
+     */
+    private Object readResolve() {
+        final FileItemHeadersImpl headers = new FileItemHeadersImpl();
+        headers.headerNameToValueListMap.putAll(headerNameToValueListMap);
+        return headers;
+    }
+
     private String toLowerCase(final String value) {
         return value.toLowerCase(Locale.ENGLISH);
     }
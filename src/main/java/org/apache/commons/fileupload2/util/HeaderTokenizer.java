@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * Splits a raw {@code header-part} into headers without decoding it into a single string first.
+ * <p>
+ * The result is the same as that of {@link org.apache.commons.fileupload2.AbstractFileUpload#getParsedHeaders(String)}, provided that the header encoding
+ * is ASCII compatible. (Which it must be anyways, because the {@code CRLFCRLF}, that terminates the {@code header-part}, is searched for as bytes.) Header
+ * names and values are decoded directly from the given byte range, and the well known header names are recognized by byte comparison, so that parsing a
+ * typical header costs a single string allocation for its value.
+ * </p>
+ *
+ * @since 2.0
+ */
+public final class HeaderTokenizer {
+
+    /**
+     * The Carriage Return ASCII character value.
+     */
+    private static final byte CR = 0x0D;
+
+    /**
+     * The Line Feed ASCII character value.
+     */
+    private static final byte LF = 0x0A;
+
+    /**
+     * The well known header names, in lower case, as they are stored by {@link FileItemHeadersImpl}.
+     */
+    private static final String[] WELL_KNOWN_NAMES = {"content-disposition", "content-type", "content-length"};
+
+    /**
+     * The difference between an ASCII upper case letter, and its lower case counterpart.
+     */
+    private static final int CASE_OFFSET = 'a' - 'A';
+
+    /**
+     * Adds the headers from the given {@code header-part} to the given object.
+     *
+     * @param bytes   The array, which holds the {@code header-part}.
+     * @param offset  The offset of the {@code header-part} in {@code bytes}.
+     * @param length  The length of the {@code header-part}, including the trailing empty line.
+     * @param charset The charset, which is used to decode header names, and values.
+     * @param headers The object, to which the headers are being added.
+     * @throws IllegalStateException The {@code header-part} isn't terminated by an empty line.
+     */
+    public static void tokenize(final byte[] bytes, final int offset, final int length, final Charset charset, final FileItemHeadersImpl headers) {
+        final int limit = offset + length;
+        int start = offset;
+        for (;;) {
+            final int end = findEndOfLine(bytes, start, limit);
+            if (start == end) {
+                break;
+            }
+            int next = end + 2;
+            if (next < limit && isWhitespace(bytes[next])) {
+                // Folded header, this is rare enough to take the slow path.
+                final StringBuilder header = new StringBuilder(new String(bytes, start, end - start, charset));
+                while (next < limit && isWhitespace(bytes[next])) {
+                    int nonWs = next;
+                    while (nonWs < limit && isWhitespace(bytes[nonWs])) {
+                        nonWs++;
+                    }
+                    final int continuationEnd = findEndOfLine(bytes, nonWs, limit);
+                    header.append(' ').append(new String(bytes, nonWs, continuationEnd - nonWs, charset));
+                    next = continuationEnd + 2;
+                }
+                addHeader(header.toString(), headers);
+            } else {
+                addHeader(bytes, start, end, charset, headers);
+            }
+            start = next;
+        }
+    }
+
+    /**
+     * Adds a single line header to the given object.
+     *
+     * @param bytes   The array, which holds the header.
+     * @param start   The index of the headers first byte.
+     * @param end     The index of the headers last byte, plus one.
+     * @param charset The charset, which is used to decode the header name, and value.
+     * @param headers The object, to which the header is being added.
+     */
+    private static void addHeader(final byte[] bytes, final int start, final int end, final Charset charset, final FileItemHeadersImpl headers) {
+        int colon = start;
+        while (colon < end && bytes[colon] != ':') {
+            colon++;
+        }
+        if (colon == end) {
+            // This header line is malformed, skip it.
+            return;
+        }
+        int nameStart = start;
+        int nameEnd = colon;
+        while (nameStart < nameEnd && isTrimmable(bytes[nameStart])) {
+            nameStart++;
+        }
+        while (nameEnd > nameStart && isTrimmable(bytes[nameEnd - 1])) {
+            nameEnd--;
+        }
+        int valueStart = colon + 1;
+        int valueEnd = end;
+        while (valueStart < valueEnd && isTrimmable(bytes[valueStart])) {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && isTrimmable(bytes[valueEnd - 1])) {
+            valueEnd--;
+        }
+        String name = getWellKnownName(bytes, nameStart, nameEnd);
+        if (name == null) {
+            name = new String(bytes, nameStart, nameEnd - nameStart, charset);
+        }
+        headers.addHeader(name, new String(bytes, valueStart, valueEnd - valueStart, charset));
+    }
+
+    /**
+     * Adds a header, which has already been decoded, to the given object.
+     *
+     * @param header  The header line.
+     * @param headers The object, to which the header is being added.
+     */
+    private static void addHeader(final String header, final FileItemHeadersImpl headers) {
+        final int colonOffset = header.indexOf(':');
+        if (colonOffset == -1) {
+            // This header line is malformed, skip it.
+            return;
+        }
+        headers.addHeader(header.substring(0, colonOffset).trim(), header.substring(colonOffset + 1).trim());
+    }
+
+    /**
+     * Finds the end of the current line.
+     *
+     * @param bytes The array, which holds the {@code header-part}.
+     * @param start The index, at which to start searching.
+     * @param limit The index of the {@code header-part}'s last byte, plus one.
+     * @return Index of the \r\n sequence, which indicates end of line.
+     */
+    private static int findEndOfLine(final byte[] bytes, final int start, final int limit) {
+        for (int i = start; i + 1 < limit; i++) {
+            if (bytes[i] == CR && bytes[i + 1] == LF) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Expected headers to be terminated by an empty line.");
+    }
+
+    /**
+     * Returns the canonical instance of the header name in the given range, if it is one of the {@link #WELL_KNOWN_NAMES}.
+     *
+     * @param bytes The array, which holds the header name.
+     * @param start The index of the names first byte.
+     * @param end   The index of the names last byte, plus one.
+     * @return The lower case header name, or null, if it isn't well known.
+     */
+    private static String getWellKnownName(final byte[] bytes, final int start, final int end) {
+        for (final String name : WELL_KNOWN_NAMES) {
+            if (name.length() == end - start && equalsIgnoreCase(name, bytes, start)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares an ASCII string in lower case with the bytes at the given position, ignoring case.
+     *
+     * @param lowerCase The string to compare with.
+     * @param bytes     The array to compare with.
+     * @param start     The index of the first byte to compare.
+     * @return True, if the bytes match the string.
+     */
+    private static boolean equalsIgnoreCase(final String lowerCase, final byte[] bytes, final int start) {
+        for (int i = 0; i < lowerCase.length(); i++) {
+            int b = bytes[start + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += CASE_OFFSET;
+            }
+            if (b != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests, whether the given byte would be removed by {@link String#trim()}.
+     *
+     * @param b The byte to test.
+     * @return True, if the byte is a control character, or a space.
+     */
+    private static boolean isTrimmable(final byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    /**
+     * Tests, whether the given byte starts a continuation line.
+     *
+     * @param b The byte to test.
+     * @return True, if the byte is a space, or a tab.
+     */
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Private constructor, to prevent instantiation.
+     */
+    private HeaderTokenizer() {
+        // Utility class
+    }
+
+}
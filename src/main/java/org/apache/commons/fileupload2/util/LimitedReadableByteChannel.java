@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A channel, which limits its data size. This is the channel
+ * counterpart of {@link LimitedInputStream}.
+ *
+ * @since 2.0
+ */
+public abstract class LimitedReadableByteChannel implements ReadableByteChannel {
+
+    /**
+     * The channel, which is being limited.
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * The maximum size of an item, in bytes.
+     */
+    private final long sizeMax;
+
+    /**
+     * The current number of bytes.
+     */
+    private long count;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param channel The channel, which shall be limited.
+     * @param sizeMax The limit; no more than this number of bytes
+     *   shall be returned by the source channel.
+     */
+    public LimitedReadableByteChannel(final ReadableByteChannel channel, final long sizeMax) {
+        this.channel = channel;
+        this.sizeMax = sizeMax;
+    }
+
+    /**
+     * Closes the underlying channel.
+     *
+     * @throws IOException An I/O error occurred.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Tests, whether the underlying channel is open.
+     *
+     * @return True, if the channel is open.
+     */
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Called to indicate, that the channels limit has
+     * been exceeded.
+     *
+     * @param sizeMax The channels limit, in bytes.
+     * @param count The actual number of bytes.
+     * @throws IOException The called method is expected
+     *   to raise an IOException.
+     */
+    protected abstract void raiseError(long sizeMax, long count)
+            throws IOException;
+
+    /**
+     * Reads a sequence of bytes from the underlying channel.
+     *
+     * @param dst The buffer, into which bytes are to be transferred.
+     * @return The number of bytes read, or -1, if the channel has
+     *   reached end-of-stream.
+     * @throws IOException An I/O error occurred, or the limit
+     *   has been exceeded.
+     */
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        final int res = channel.read(dst);
+        if (res > 0) {
+            count += res;
+            if (count > sizeMax) {
+                raiseError(sizeMax, count);
+            }
+        }
+        return res;
+    }
+
+}
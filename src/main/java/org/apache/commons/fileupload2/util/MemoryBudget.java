@@ -0,0 +1,277 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2.util;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A limit on the memory, which is held by the contents of file items across all concurrent requests.
+ * <p>
+ * The size threshold of a {@link org.apache.commons.fileupload2.disk.DiskFileItemFactory} limits the memory of a single item, but not the number of
+ * items, which are held in memory at the same time. Items, which share a budget, reserve memory from it, as they are written, and move their contents
+ * to disk early, if the budget is exhausted. The memory is returned to the budget, when items move to disk, or are
+ * {@link org.apache.commons.fileupload2.FileItem#delete() deleted}.
+ * </p>
+ * <p>
+ * Items, which are never deleted, return their memory, once they have been garbage collected: Every {@link #newReservation(Object) reservation} is
+ * tied to its owner by a phantom reference. Reservations of collected owners are returned, whenever the budget is used next, so no background
+ * thread is required.
+ * </p>
+ * <p>
+ * The accounting is lock-free. Instances are thread-safe, and may be shared by any number of factories.
+ * </p>
+ *
+ * @see org.apache.commons.fileupload2.disk.DiskFileItemFactory#setMemoryBudget(MemoryBudget)
+ * @since 2.0
+ */
+public class MemoryBudget {
+
+    /**
+     * Memory, which has been reserved on behalf of an owner, typically a file item. The memory is returned by {@link #release()}, or, at the latest,
+     * once the owner has been garbage collected.
+     */
+    public static final class Reservation {
+
+        /**
+         * Tracks the owner, and holds the number of reserved bytes.
+         */
+        private final Tracker tracker;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param tracker Tracks the owner.
+         */
+        private Reservation(final Tracker tracker) {
+            this.tracker = tracker;
+        }
+
+        /**
+         * Gets the number of bytes, which are currently reserved.
+         *
+         * @return The reserved memory, in bytes.
+         */
+        public long getBytes() {
+            return tracker.bytes.get();
+        }
+
+        /**
+         * Returns all memory of this reservation to the budget. The reservation may be used again afterwards.
+         */
+        public void release() {
+            tracker.release();
+        }
+
+        /**
+         * Reserves memory, if the budget allows it.
+         *
+         * @param bytes The number of bytes to reserve.
+         * @return True, if the memory has been reserved. False, if the budget would be exceeded, in which case nothing is reserved.
+         */
+        public boolean tryAcquire(final long bytes) {
+            if (!tracker.budget.tryAcquire(bytes)) {
+                return false;
+            }
+            tracker.bytes.addAndGet(bytes);
+            return true;
+        }
+
+    }
+
+    /**
+     * A phantom reference to the owner of a reservation.
+     */
+    private static final class Tracker extends PhantomReference<Object> {
+
+        /**
+         * The budget, from which the memory has been reserved.
+         */
+        private final MemoryBudget budget;
+
+        /**
+         * The number of reserved bytes.
+         */
+        private final AtomicLong bytes = new AtomicLong();
+
+        /**
+         * Creates a new instance.
+         *
+         * @param owner  The owner of the reservation.
+         * @param budget The budget, from which the memory is reserved.
+         */
+        Tracker(final Object owner, final MemoryBudget budget) {
+            super(owner, budget.queue);
+            this.budget = budget;
+        }
+
+        /**
+         * Returns the reserved memory to the budget.
+         */
+        void release() {
+            final long reserved = bytes.getAndSet(0);
+            if (reserved > 0) {
+                budget.release(reserved);
+            }
+        }
+
+    }
+
+    /**
+     * The maximum number of bytes, which may be reserved.
+     */
+    private final long maxBytes;
+
+    /**
+     * The number of bytes, which are currently reserved.
+     */
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * The largest number of bytes, which have been reserved at the same time.
+     */
+    private final AtomicLong peakBytes = new AtomicLong();
+
+    /**
+     * The number of reservations, which have been rejected.
+     */
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * Receives the trackers of owners, which have been garbage collected.
+     */
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * The trackers of all reservations, whose owners haven't been collected yet. This keeps the trackers reachable.
+     */
+    private final Set<Tracker> trackers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxBytes The maximum number of bytes, which may be reserved.
+     * @throws IllegalArgumentException The maximum is negative.
+     */
+    public MemoryBudget(final long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Invalid maximum: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the maximum number of bytes, which may be reserved.
+     *
+     * @return The size of the budget, in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the largest number of bytes, which have been reserved at the same time.
+     *
+     * @return The peak usage, in bytes.
+     */
+    public long getPeakBytes() {
+        return peakBytes.get();
+    }
+
+    /**
+     * Gets the number of reservations, which have been rejected, because the budget was exhausted. Each rejection causes an item to move to disk.
+     *
+     * @return The number of rejections.
+     */
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+
+    /**
+     * Gets the number of bytes, which are currently reserved.
+     *
+     * @return The current usage, in bytes.
+     */
+    public long getUsedBytes() {
+        expungeStaleReservations();
+        return usedBytes.get();
+    }
+
+    /**
+     * Returns the memory of reservations, whose owners have been garbage collected.
+     */
+    private void expungeStaleReservations() {
+        Reference<?> reference = queue.poll();
+        while (reference != null) {
+            final Tracker tracker = (Tracker) reference;
+            trackers.remove(tracker);
+            tracker.release();
+            reference = queue.poll();
+        }
+    }
+
+    /**
+     * Creates a new reservation, which returns its memory, once the given owner has been garbage collected, unless it has been
+     * {@link Reservation#release() released} before.
+     *
+     * @param owner The owner of the reservation. The reservation must not be reachable from anywhere else than the owner.
+     * @return A new, empty reservation.
+     */
+    public Reservation newReservation(final Object owner) {
+        expungeStaleReservations();
+        final Tracker tracker = new Tracker(owner, this);
+        trackers.add(tracker);
+        return new Reservation(tracker);
+    }
+
+    /**
+     * Returns memory to the budget.
+     *
+     * @param bytes The number of bytes, which have been reserved by {@link #tryAcquire(long)}.
+     */
+    public void release(final long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * Reserves memory, if the budget allows it.
+     *
+     * @param bytes The number of bytes to reserve.
+     * @return True, if the memory has been reserved. False, if the budget would be exceeded, in which case nothing is reserved.
+     */
+    public boolean tryAcquire(final long bytes) {
+        expungeStaleReservations();
+        for (;;) {
+            final long current = usedBytes.get();
+            final long next = current + bytes;
+            if (next > maxBytes) {
+                rejections.increment();
+                return false;
+            }
+            if (usedBytes.compareAndSet(current, next)) {
+                peakBytes.accumulateAndGet(next, Math::max);
+                return true;
+            }
+        }
+    }
+
+}
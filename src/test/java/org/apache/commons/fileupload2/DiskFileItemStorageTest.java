@@ -0,0 +1,658 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2;
+
+import static org.apache.commons.fileupload2.Util.parseUpload;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.CopyOption;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+import org.apache.commons.fileupload2.disk.DestinationFileItem;
+import org.apache.commons.fileupload2.disk.DestinationFileItemFactory;
+import org.apache.commons.fileupload2.disk.DiskFileItem;
+import org.apache.commons.fileupload2.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload2.disk.FileCleaner;
+import org.apache.commons.fileupload2.disk.FileDeletionService;
+import org.apache.commons.fileupload2.disk.RepositoryLayout;
+import org.apache.commons.fileupload2.util.Digester;
+import org.apache.commons.fileupload2.util.DirectBufferPool;
+import org.apache.commons.fileupload2.util.FileItemHeadersImpl;
+import org.apache.commons.fileupload2.util.MemoryBudget;
+import org.apache.commons.io.FileCleaningTracker;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the storage of {@link DiskFileItem}, and other items created by a {@link FileItemFactory}:
+ * digests, off-heap memory, temporary files, and their deletion.
+ */
+public class DiskFileItemStorageTest {
+
+    /**
+     * Timeout for waiting on the garbage collector, which is generous, because a collection isn't guaranteed to be prompt.
+     */
+    private static final long GC_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Requests garbage collections, until the given condition holds, or the {@link #GC_TIMEOUT_MILLIS timeout} expires.
+     */
+    private static void collectGarbageUntil(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + GC_TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Tests digests, which are computed while items are written, or read.
+     */
+    @Test
+    public void testDigests()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        final DiskFileItemFactory factory = new DiskFileItemFactory(1000, null);
+        factory.setDigestAlgorithms("SHA-256", "MD5", Digester.CRC32);
+        final List<FileItem> fileItems = parseUpload(factory, request);
+        assertEquals(expected.size(), fileItems.size());
+        for (int j = 0; j < expected.size(); j++) {
+            final byte[] contents = expected.get(j).get();
+            final DiskFileItem fileItem = (DiskFileItem) fileItems.get(j);
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(contents), fileItem.getDigest("SHA-256"));
+            assertArrayEquals(MessageDigest.getInstance("MD5").digest(contents), fileItem.getDigest("MD5"));
+            final CRC32 crc = new CRC32();
+            crc.update(contents);
+            final byte[] crcBytes = fileItem.getDigests().get(Digester.CRC32);
+            assertEquals(crc.getValue(), ((crcBytes[0] & 0xffL) << 24) | ((crcBytes[1] & 0xff) << 16) | ((crcBytes[2] & 0xff) << 8) | (crcBytes[3] & 0xff));
+            fileItem.delete();
+        }
+        assertThrows(IllegalArgumentException.class, () -> factory.setDigestAlgorithms("NO-SUCH-ALGORITHM"));
+    }
+
+    /**
+     * Tests keeping small items in off-heap memory.
+     */
+    @Test
+    public void testDirectBufferPool()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        final DirectBufferPool pool = new DirectBufferPool(16384, 4);
+        final DiskFileItemFactory factory = new DiskFileItemFactory(10000, null);
+        factory.setDirectBufferPool(pool);
+        for (int i = 0; i < 2; i++) {
+            final List<FileItem> fileItems = parseUpload(factory, request);
+            assertEquals(expected.size(), fileItems.size());
+            for (int j = 0; j < expected.size(); j++) {
+                final byte[] contents = expected.get(j).get();
+                final DiskFileItem fileItem = (DiskFileItem) fileItems.get(j);
+                assertEquals(contents.length <= 10000, fileItem.isInMemory());
+                assertEquals(contents.length, fileItem.getSize());
+                assertArrayEquals(contents, fileItem.get());
+                final ByteBuffer byteBuffer = fileItem.getByteBuffer();
+                assertTrue(byteBuffer.isReadOnly());
+                assertEquals(ByteBuffer.wrap(contents), byteBuffer);
+                try (InputStream in = fileItem.getInputStream()) {
+                    assertArrayEquals(contents, IOUtils.toByteArray(in));
+                }
+                fileItem.delete();
+            }
+        }
+        assertTrue(pool.getHitCount() > 0);
+    }
+
+    /**
+     * Tests, that off-heap buffers grow geometrically, also above the maximum size of the {@link DirectBufferPool}.
+     */
+    @Test
+    public void testDirectBufferPoolGrowth()
+            throws Exception {
+        final DirectBufferPool pool = new DirectBufferPool(DirectBufferPool.MIN_BUFFER_SIZE, 4);
+        final int threshold = 1024 * 1024;
+        final DiskFileItemFactory factory = new DiskFileItemFactory(threshold, null);
+        factory.setDirectBufferPool(pool);
+        final FileItem fileItem = factory.createItem("field", "application/octet-stream", false, "foo.bin");
+        final byte[] chunk = new byte[100];
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (OutputStream out = fileItem.getOutputStream()) {
+            for (int i = 0; i < threshold / chunk.length; i++) {
+                Arrays.fill(chunk, (byte) i);
+                out.write(chunk);
+                expected.write(chunk);
+            }
+        }
+        assertTrue(fileItem.isInMemory());
+        assertArrayEquals(expected.toByteArray(), fileItem.get());
+        // Doubling the buffer takes a few allocations, rather than one for every chunk.
+        assertTrue(pool.getMissCount() < 20, "Misses: " + pool.getMissCount());
+        fileItem.delete();
+    }
+
+    /**
+     * Tests, that off-heap memory isn't reused by later requests, while streams, channels, or views of it are still in use.
+     */
+    @Test
+    public void testDirectBufferPoolAliasing()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        final DirectBufferPool pool = new DirectBufferPool(16384, 4);
+        final DiskFileItemFactory factory = new DiskFileItemFactory(10000, null);
+        factory.setDirectBufferPool(pool);
+        final List<InputStream> streams = new ArrayList<>();
+        final List<SeekableByteChannel> channels = new ArrayList<>();
+        final List<ByteBuffer> views = new ArrayList<>();
+        final List<FileItem> first = parseUpload(factory, request);
+        for (final FileItem fileItem : first) {
+            streams.add(fileItem.getInputStream());
+            channels.add(((DiskFileItem) fileItem).getChannel());
+            views.add(fileItem.getByteBuffer());
+            fileItem.delete();
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (final FileItem fileItem : expected) {
+            baos.write(StreamingTest.getHeader(fileItem.getFieldName()).getBytes(StandardCharsets.US_ASCII));
+            for (final byte b : fileItem.get()) {
+                baos.write(~b);
+            }
+            baos.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        baos.write(StreamingTest.getFooter().getBytes(StandardCharsets.US_ASCII));
+        final byte[] other = baos.toByteArray();
+        for (int i = 0; i < 2; i++) {
+            for (final FileItem fileItem : parseUpload(factory, other)) {
+                fileItem.delete();
+            }
+        }
+        for (int j = 0; j < expected.size(); j++) {
+            final byte[] contents = expected.get(j).get();
+            assertEquals(ByteBuffer.wrap(contents), views.get(j));
+            try (SeekableByteChannel channel = channels.get(j)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(contents.length);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    continue;
+                }
+                assertArrayEquals(contents, buffer.array());
+            }
+            try (InputStream in = streams.get(j)) {
+                assertArrayEquals(contents, IOUtils.toByteArray(in));
+            }
+        }
+    }
+
+    /**
+     * Tests {@link FileItem#getByteBuffer()}, and decoding strings from it, for items in memory, and on disk.
+     */
+    @Test
+    public void testByteBuffer()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        final List<FileItem> fileItems = parseUpload(new DiskFileItemFactory(1000, null), request);
+        assertEquals(expected.size(), fileItems.size());
+        for (int j = 0; j < expected.size(); j++) {
+            final byte[] contents = expected.get(j).get();
+            final FileItem fileItem = fileItems.get(j);
+            assertEquals(contents.length <= 1000, fileItem.isInMemory());
+            for (int k = 0; k < 2; k++) {
+                final ByteBuffer byteBuffer = fileItem.getByteBuffer();
+                assertTrue(byteBuffer.isReadOnly());
+                assertEquals(ByteBuffer.wrap(contents), byteBuffer);
+                assertArrayEquals(contents, fileItem.get());
+            }
+            assertEquals(new String(contents, StandardCharsets.ISO_8859_1), fileItem.getString());
+            assertEquals(new String(contents, StandardCharsets.UTF_8), fileItem.getString("UTF-8"));
+            assertThrows(UnsupportedEncodingException.class, () -> fileItem.getString("no-such-charset"));
+            fileItem.delete();
+        }
+    }
+
+    /**
+     * Tests, that {@link DiskFileItem#get()} reads a temporary file once, and returns copies of the cached contents.
+     */
+    @Test
+    public void testGetCachesFileContents()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> fileItems = parseUpload(new DiskFileItemFactory(1000, null), request);
+        final DiskFileItem fileItem = (DiskFileItem) fileItems.get(fileItems.size() - 1);
+        assertFalse(fileItem.isInMemory());
+        final byte[] contents = fileItem.get();
+        // Neither changes of the file, nor of the returned array affect later calls.
+        Files.write(fileItem.getStoreLocation().toPath(), new byte[] {1, 2, 3});
+        contents[0]++;
+        final byte[] cached = fileItem.get();
+        assertEquals(contents.length, cached.length);
+        assertEquals(contents[0] - 1, cached[0]);
+        final Path path = Files.createTempFile("fileupload", ".tmp");
+        try {
+            fileItem.write(path, StandardCopyOption.REPLACE_EXISTING);
+            assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(path));
+        } finally {
+            Files.delete(path);
+        }
+        for (final FileItem item : fileItems) {
+            item.delete();
+        }
+    }
+
+    /**
+     * Tests {@link DiskFileItem#getChannel()}, and {@link DiskFileItem#getByteBuffers()}.
+     */
+    @Test
+    public void testRandomAccess()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        final List<FileItem> fileItems = parseUpload(new DiskFileItemFactory(1000, null), request);
+        assertEquals(expected.size(), fileItems.size());
+        for (int j = 0; j < expected.size(); j++) {
+            final byte[] contents = expected.get(j).get();
+            final DiskFileItem fileItem = (DiskFileItem) fileItems.get(j);
+            try (SeekableByteChannel channel = fileItem.getChannel()) {
+                assertEquals(contents.length, channel.size());
+                final int offset = contents.length / 2;
+                channel.position(offset);
+                final ByteBuffer tail = ByteBuffer.allocate(contents.length - offset);
+                while (tail.hasRemaining() && channel.read(tail) > 0) {
+                    // Continue reading
+                }
+                tail.flip();
+                assertEquals(ByteBuffer.wrap(contents, offset, contents.length - offset), tail);
+            }
+            final ByteBuffer[] buffers = fileItem.getByteBuffers();
+            assertEquals(1, buffers.length);
+            assertEquals(ByteBuffer.wrap(contents), buffers[0]);
+            try (InputStream in = fileItem.getInputStream()) {
+                assertArrayEquals(contents, IOUtils.toByteArray(in));
+            }
+            fileItem.delete();
+        }
+    }
+
+    /**
+     * Tests {@link DiskFileItem#write(Path, CopyOption...)}.
+     */
+    @Test
+    public void testWritePath()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        final List<FileItem> fileItems = parseUpload(new DiskFileItemFactory(1000, null), request);
+        final Path dir = Files.createTempDirectory("fileupload");
+        try {
+            for (int j = 0; j < expected.size(); j++) {
+                final byte[] contents = expected.get(j).get();
+                final DiskFileItem fileItem = (DiskFileItem) fileItems.get(j);
+                final File storeLocation = fileItem.getStoreLocation();
+                final Path path = dir.resolve("item" + j);
+                Files.write(path, new byte[] {1});
+                assertThrows(FileAlreadyExistsException.class, () -> fileItem.write(path));
+                // The existing file is left alone.
+                assertArrayEquals(new byte[] {1}, Files.readAllBytes(path));
+                fileItem.write(path, StandardCopyOption.REPLACE_EXISTING);
+                assertArrayEquals(contents, Files.readAllBytes(path));
+                assertEquals(contents.length, fileItem.getSize());
+                if (storeLocation != null) {
+                    assertFalse(storeLocation.exists());
+                }
+                Files.delete(path);
+            }
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Tests the {@link DestinationFileItemFactory}.
+     */
+    @Test
+    public void testDestinationFileItemFactory()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        final Path dir = Files.createTempDirectory("fileupload");
+        try {
+            final List<FileItemHeaders> resolvedHeaders = new ArrayList<>();
+            final DestinationFileItemFactory factory = new DestinationFileItemFactory((fieldName, fileName, headers) -> {
+                resolvedHeaders.add(headers);
+                final int num = Integer.parseInt(fieldName.substring("field".length()));
+                return num % 2 == 0 ? dir.resolve(fieldName) : null;
+            }, new DiskFileItemFactory(1000, null));
+            final List<FileItem> fileItems = parseUpload(factory, request);
+            assertEquals(expected.size(), fileItems.size());
+            assertEquals(expected.size(), resolvedHeaders.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertTrue(resolvedHeaders.get(j).getHeader("Content-Disposition").contains("\"field" + j + "\""));
+                final DestinationFileItem fileItem = (DestinationFileItem) fileItems.get(j);
+                final byte[] contents = expected.get(j).get();
+                assertArrayEquals(contents, fileItem.get());
+                assertEquals(contents.length, fileItem.getSize());
+                if (j % 2 == 0) {
+                    assertEquals(dir.resolve("field" + j), fileItem.getPath());
+                    assertNull(fileItem.getDelegate());
+                    assertArrayEquals(contents, Files.readAllBytes(fileItem.getPath()));
+                } else {
+                    assertNull(fileItem.getPath());
+                    assertTrue(fileItem.getDelegate() instanceof DiskFileItem);
+                }
+                fileItem.delete();
+                if (j % 2 == 0) {
+                    assertFalse(Files.exists(dir.resolve("field" + j)));
+                }
+            }
+
+            // The announced size is preallocated, and truncated to the actual size.
+            final byte[] shortRequest = ("-----1234\r\n"
+                    + "Content-Disposition: form-data; name=\"field0\"; filename=\"foo.bin\"\r\n"
+                    + "Content-Length: 100\r\n"
+                    + "\r\n"
+                    + "123\r\n"
+                    + StreamingTest.getFooter()).getBytes(StandardCharsets.US_ASCII);
+            final DestinationFileItemFactory preallocating = new DestinationFileItemFactory((fieldName, fileName, headers) -> dir.resolve(fileName));
+            preallocating.setPreallocationLimit(1000);
+            final List<FileItem> shortItems = parseUpload(preallocating, shortRequest);
+            assertEquals(1, shortItems.size());
+            final Path path = dir.resolve("foo.bin");
+            assertEquals(3, Files.size(path));
+            assertEquals("123", shortItems.get(0).getString());
+            shortItems.get(0).delete();
+            assertFalse(Files.exists(path));
+
+            // The announced size is clamped to the limit.
+            final FileItemHeadersImpl headers = new FileItemHeadersImpl();
+            headers.addHeader(AbstractFileUpload.CONTENT_LENGTH, String.valueOf(Long.MAX_VALUE));
+            final FileItem hugeItem = preallocating.createItem("field0", null, false, "foo.bin");
+            hugeItem.setHeaders(headers);
+            try (OutputStream out = hugeItem.getOutputStream()) {
+                assertEquals(1000, Files.size(path));
+                out.write(new byte[] {1, 2, 3});
+            }
+            assertEquals(3, Files.size(path));
+            hugeItem.delete();
+            assertFalse(Files.exists(path));
+
+            // Existing files are left untouched, unless overwriting is enabled.
+            Files.write(path, new byte[] {1});
+            try {
+                final FileUploadException e = assertThrows(FileUploadException.class, () -> parseUpload(preallocating, shortRequest));
+                assertTrue(e.getCause() instanceof FileAlreadyExistsException);
+                assertArrayEquals(new byte[] {1}, Files.readAllBytes(path));
+                preallocating.setOverwrite(true);
+                final List<FileItem> replaced = parseUpload(preallocating, shortRequest);
+                assertEquals("123", new String(Files.readAllBytes(path), StandardCharsets.US_ASCII));
+                replaced.get(0).delete();
+                assertFalse(Files.exists(path));
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Tests the {@link RepositoryLayout}.
+     */
+    @Test
+    public void testRepositoryLayout()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        final File root1 = Files.createTempDirectory("fileupload").toFile();
+        final File root2 = Files.createTempDirectory("fileupload").toFile();
+        try {
+            final DiskFileItemFactory factory = new DiskFileItemFactory(1000, null);
+            factory.setRepositoryLayout(new RepositoryLayout(16, root1, root2));
+            final List<FileItem> fileItems = parseUpload(factory, request);
+            final List<File> roots = new ArrayList<>();
+            for (int j = 0; j < expected.size(); j++) {
+                final DiskFileItem fileItem = (DiskFileItem) fileItems.get(j);
+                assertArrayEquals(expected.get(j).get(), fileItem.get());
+                if (!fileItem.isInMemory()) {
+                    final File storeLocation = fileItem.getStoreLocation();
+                    assertTrue(storeLocation.isFile());
+                    assertTrue(storeLocation.getName().matches("upload_[0-9a-f_]+_\\d{8,}\\.tmp"), storeLocation.getName());
+                    assertTrue(storeLocation.getParentFile().getName().matches("[0-9a-f]{2}"));
+                    roots.add(storeLocation.getParentFile().getParentFile());
+                }
+                fileItem.delete();
+            }
+            assertTrue(roots.contains(root1));
+            assertTrue(roots.contains(root2));
+            assertThrows(IllegalArgumentException.class, () -> new RepositoryLayout(3, root1));
+            assertThrows(IllegalArgumentException.class, () -> new RepositoryLayout(16));
+        } finally {
+            FileUtils.deleteDirectory(root1);
+            FileUtils.deleteDirectory(root2);
+        }
+    }
+
+    /**
+     * Tests the {@link FileDeletionService}.
+     */
+    @Test
+    public void testDeletionService()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final FileDeletionService deletionService = new FileDeletionService(4, 2);
+        final DiskFileItemFactory factory = new DiskFileItemFactory(1000, null);
+        factory.setDeletionService(deletionService);
+        final List<FileItem> fileItems = parseUpload(factory, request);
+        final List<File> files = new ArrayList<>();
+        for (final FileItem fileItem : fileItems) {
+            final File storeLocation = ((DiskFileItem) fileItem).getStoreLocation();
+            if (storeLocation != null) {
+                assertTrue(storeLocation.exists());
+                files.add(storeLocation);
+            }
+            fileItem.delete();
+        }
+        deletionService.flush();
+        for (final File file : files) {
+            assertFalse(file.exists(), file.toString());
+        }
+        assertEquals(files.size(), deletionService.getSubmittedCount());
+        assertEquals(files.size(), deletionService.getDeletedCount());
+        assertEquals(0, deletionService.getPendingCount());
+        assertEquals(0, deletionService.getFailedCount());
+
+        deletionService.shutdown();
+        assertTrue(deletionService.isShutdown());
+        // After shutdown, files are deleted synchronously.
+        final long inlineCount = deletionService.getInlineCount();
+        final File file = File.createTempFile("fileupload", ".tmp");
+        deletionService.delete(file);
+        assertFalse(file.exists());
+        assertEquals(inlineCount + 1, deletionService.getInlineCount());
+    }
+
+    /**
+     * Tests the {@link FileCleaner}.
+     */
+    @Test
+    public void testFileCleaner()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final FileCleaner fileCleaner = new FileCleaner(4);
+        final DiskFileItemFactory factory = new DiskFileItemFactory(1000, null);
+        factory.setFileCleaner(fileCleaner);
+        final List<FileItem> fileItems = parseUpload(factory, request);
+        // Only items, which have exceeded the threshold, are registered.
+        final long onDisk = fileItems.stream().filter(fileItem -> !fileItem.isInMemory()).count();
+        assertTrue(onDisk > 0 && onDisk < fileItems.size());
+        assertEquals(onDisk, fileCleaner.getTrackCount());
+        // Explicitly deleted, and written items are deregistered.
+        final Path dir = Files.createTempDirectory("fileupload");
+        try {
+            for (int j = 0; j < fileItems.size(); j++) {
+                final DiskFileItem fileItem = (DiskFileItem) fileItems.get(j);
+                if (j % 2 == 0) {
+                    fileItem.delete();
+                } else {
+                    final Path path = dir.resolve("item" + j);
+                    fileItem.write(path);
+                    Files.delete(path);
+                }
+            }
+        } finally {
+            Files.delete(dir);
+        }
+        assertEquals(0, fileCleaner.getTrackCount());
+
+        // The files of collected owners are deleted.
+        final File file = File.createTempFile("fileupload", ".tmp");
+        fileCleaner.register(file, new Object());
+        assertEquals(1, fileCleaner.getTrackCount());
+        collectGarbageUntil(() -> !file.exists());
+        assertFalse(file.exists());
+        assertEquals(0, fileCleaner.getTrackCount());
+        assertEquals(1, fileCleaner.getCleanedCount());
+        fileCleaner.exitWhenFinished();
+        assertThrows(IllegalStateException.class, () -> fileCleaner.register(file, new Object()));
+    }
+
+    /**
+     * Tests, that temporary files are named, and tracked only, when items exceed the threshold.
+     */
+    @Test
+    public void testLazyTempFile()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final FileCleaningTracker tracker = new FileCleaningTracker();
+        try {
+            final DiskFileItemFactory factory = new DiskFileItemFactory(1000, null);
+            factory.setFileCleaningTracker(tracker);
+            final List<FileItem> fileItems = parseUpload(factory, request);
+            int onDisk = 0;
+            for (final FileItem fileItem : fileItems) {
+                final DiskFileItem diskFileItem = (DiskFileItem) fileItem;
+                if (diskFileItem.isInMemory()) {
+                    assertNull(diskFileItem.getStoreLocation());
+                    assertTrue(diskFileItem.getSize() <= 1000);
+                } else {
+                    assertTrue(diskFileItem.getStoreLocation().isFile());
+                    onDisk++;
+                }
+            }
+            assertTrue(onDisk > 0);
+            assertEquals(onDisk, tracker.getTrackCount());
+            for (final FileItem fileItem : fileItems) {
+                fileItem.delete();
+            }
+        } finally {
+            tracker.exitWhenFinished();
+        }
+    }
+
+    /**
+     * Tests the {@link MemoryBudget}.
+     */
+    @Test
+    public void testMemoryBudget()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        for (final DirectBufferPool pool : new DirectBufferPool[] {null, new DirectBufferPool()}) {
+            final MemoryBudget budget = new MemoryBudget(4096);
+            final DiskFileItemFactory factory = new DiskFileItemFactory(1000, null);
+            factory.setMemoryBudget(budget);
+            factory.setDirectBufferPool(pool);
+            final List<FileItem> fileItems = parseUpload(factory, request);
+            assertEquals(expected.size(), fileItems.size());
+            long reserved = 0;
+            int spilledEarly = 0;
+            for (int j = 0; j < expected.size(); j++) {
+                final FileItem fileItem = fileItems.get(j);
+                assertArrayEquals(expected.get(j).get(), fileItem.get());
+                if (fileItem.isInMemory()) {
+                    // Off-heap items reserve the capacity of their buffers, which is the smallest size class for items below the threshold.
+                    reserved += pool == null || fileItem.getSize() == 0 ? fileItem.getSize() : DirectBufferPool.MIN_BUFFER_SIZE;
+                } else if (fileItem.getSize() <= 1000) {
+                    spilledEarly++;
+                }
+            }
+            assertTrue(spilledEarly > 0);
+            assertEquals(reserved, budget.getUsedBytes());
+            assertTrue(budget.getPeakBytes() <= budget.getMaxBytes());
+            assertTrue(budget.getPeakBytes() >= reserved);
+            assertTrue(budget.getRejectionCount() >= spilledEarly);
+            for (final FileItem fileItem : fileItems) {
+                fileItem.delete();
+            }
+            assertEquals(0, budget.getUsedBytes());
+        }
+    }
+
+    /**
+     * Tests, that the {@link MemoryBudget} recovers the memory of items, which are garbage collected without being deleted.
+     */
+    @Test
+    public void testMemoryBudgetWithoutDelete()
+            throws Exception {
+        final byte[] request = StreamingTest.newRequest();
+        final List<FileItem> expected = parseUpload(new DiskFileItemFactory(), request);
+        for (final DirectBufferPool pool : new DirectBufferPool[] {null, new DirectBufferPool()}) {
+            final MemoryBudget budget = new MemoryBudget(65536);
+            final DiskFileItemFactory factory = new DiskFileItemFactory(1000, null);
+            factory.setMemoryBudget(budget);
+            factory.setDirectBufferPool(pool);
+            for (int i = 0; i < 10; i++) {
+                final List<FileItem> fileItems = parseUpload(factory, request);
+                long inMemory = 0;
+                for (final FileItem fileItem : fileItems) {
+                    if (fileItem.isInMemory()) {
+                        inMemory += fileItem.getSize();
+                    } else {
+                        fileItem.delete();
+                    }
+                }
+                // The reservations of reachable items are never returned.
+                assertTrue(budget.getUsedBytes() >= inMemory);
+                assertEquals(expected.size(), fileItems.size());
+            }
+            collectGarbageUntil(() -> budget.getUsedBytes() == 0);
+            assertEquals(0, budget.getUsedBytes());
+        }
+    }
+}
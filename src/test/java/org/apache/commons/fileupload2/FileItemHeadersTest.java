@@ -21,10 +21,30 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.commons.fileupload2.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload2.disk.FileCleaner;
+import org.apache.commons.fileupload2.disk.FileDeletionService;
+import org.apache.commons.fileupload2.servlet.ServletFileUpload;
+import org.apache.commons.fileupload2.servlet.ServletRequestContext;
 import org.apache.commons.fileupload2.util.FileItemHeadersImpl;
+import org.apache.commons.fileupload2.util.HeaderTokenizer;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
 
 /**
  * Unit tests {@link FileItemHeaders} and
@@ -87,4 +107,192 @@ public class FileItemHeadersTest {
         assertFalse(headerValueEnumeration.hasNext());
     }
 
+    /**
+     * Tests, that {@link HeaderTokenizer} yields the same headers as
+     * {@link AbstractFileUpload#getParsedHeaders(String)}.
+     */
+    @Test
+    public void testHeaderTokenizer() {
+        final String headerPart = "Content-Disposition: form-data; name=\"file\"; filename=\"f\u00e4.txt\"\r\n"
+                + "CONTENT-TYPE :\ttext/plain \r\n"
+                + "X-Folded: first\r\n"
+                + " \t second\r\n"
+                + "\tthird\r\n"
+                + "No colon here\r\n"
+                + "X-Empty:\r\n"
+                + "x-folded: again\r\n"
+                + "\r\n";
+        final FileItemHeaders expected = new ServletFileUpload().getParsedHeaders(headerPart);
+        final byte[] bytes = ("junk" + headerPart).getBytes(StandardCharsets.UTF_8);
+        final FileItemHeadersImpl actual = new FileItemHeadersImpl();
+        HeaderTokenizer.tokenize(bytes, 4, bytes.length - 4, StandardCharsets.UTF_8, actual);
+
+        final Iterator<String> expectedNames = expected.getHeaderNames();
+        final Iterator<String> actualNames = actual.getHeaderNames();
+        while (expectedNames.hasNext()) {
+            final String name = expectedNames.next();
+            assertEquals(name, actualNames.next());
+            final Iterator<String> expectedValues = expected.getHeaders(name);
+            final Iterator<String> actualValues = actual.getHeaders(name);
+            while (expectedValues.hasNext()) {
+                assertEquals(expectedValues.next(), actualValues.next());
+            }
+            assertFalse(actualValues.hasNext());
+        }
+        assertFalse(actualNames.hasNext());
+        assertEquals("form-data; name=\"file\"; filename=\"f\u00e4.txt\"", actual.getHeader("content-disposition"));
+        assertEquals("text/plain", actual.getHeader("Content-Type"));
+        assertEquals("first second third", actual.getHeader("X-Folded"));
+        assertEquals("", actual.getHeader("x-empty"));
+    }
+
+    /**
+     * Tests, that an override of {@link AbstractFileUpload#getParsedHeaders(String)}
+     * is still used, when parsing a request.
+     */
+    @Test
+    public void testGetParsedHeadersOverride() throws Exception {
+        final String request = "-----1234\r\n"
+                + "Content-Disposition: form-data; name=\"field\"\r\n"
+                + "\r\n"
+                + "value\r\n"
+                + "-----1234--\r\n";
+        final ServletFileUpload upload = new ServletFileUpload() {
+            @Override
+            public FileItemHeaders getParsedHeaders(final String headerPart) {
+                final FileItemHeadersImpl headers = (FileItemHeadersImpl) super.getParsedHeaders(headerPart);
+                headers.addHeader("X-Override", "true");
+                return headers;
+            }
+        };
+        final FileItemIterator iter = upload.getItemIterator(new ServletRequestContext(
+                new MockHttpServletRequest(request.getBytes(StandardCharsets.US_ASCII), "multipart/form-data; boundary=---1234")));
+        final FileItemStream item = iter.next();
+        assertEquals("field", item.getFieldName());
+        assertEquals("true", item.getHeaders().getHeader("X-Override"));
+        assertNull(new ServletFileUpload().getItemIterator(new ServletRequestContext(
+                new MockHttpServletRequest(request.getBytes(StandardCharsets.US_ASCII), "multipart/form-data; boundary=---1234")))
+                .next().getHeaders().getHeader("X-Override"));
+    }
+
+    /**
+     * Tests adding headers from concurrent threads, and that a deserialized instance is still usable.
+     */
+    @Test
+    public void testConcurrentAddHeader() throws Exception {
+        final FileItemHeadersImpl headers = new FileItemHeadersImpl();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    headers.addHeader("X-Header", "value");
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        int count = 0;
+        for (final Iterator<String> iter = headers.getHeaders("x-header"); iter.hasNext(); iter.next()) {
+            count++;
+        }
+        assertEquals(threads.length * 1000, count);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(headers);
+        }
+        final FileItemHeadersImpl copy;
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            copy = (FileItemHeadersImpl) ois.readObject();
+        }
+        copy.addHeader("Content-Type", "text/plain");
+        assertEquals("text/plain", copy.getHeader("content-type"));
+        assertEquals("value", copy.getHeader("X-Header"));
+    }
+
+    /**
+     * Tests, whether virtual threads, and the JFR API are available. The library targets Java 8, so both are accessed by reflection.
+     *
+     * @return True, if virtual threads can be started, and their pinning can be recorded.
+     */
+    static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            Class.forName("jdk.jfr.Recording");
+            return true;
+        } catch (final ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Tests, that parsing requests on virtual threads never pins their carrier threads. The requests are stored on disk, and the items are deleted,
+     * and tracked by a shared {@link FileDeletionService}, and {@link FileCleaner}, whose locks are contended, and whose flush blocks. The
+     * {@code jdk.VirtualThreadPinned} event reports a virtual thread, which parks while holding a monitor. On Java 21, it doesn't report
+     * {@link Object#wait()}, which pins the carrier as well.
+     */
+    @Test
+    @EnabledIf("isVirtualThreadSupported")
+    public void testNoVirtualThreadPinning() throws Exception {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            body.append("-----1234\r\n")
+                .append("Content-Disposition: form-data; name=\"field").append(i).append("\"; filename=\"foo.bin\"\r\n")
+                .append("Content-Type: application/octet-stream\r\n")
+                .append("\r\n");
+            for (int j = 0; j < 1000; j++) {
+                body.append((char) ('a' + j % 26));
+            }
+            body.append("\r\n");
+        }
+        body.append("-----1234--\r\n");
+        final byte[] request = body.toString().getBytes(StandardCharsets.US_ASCII);
+        final FileDeletionService deletionService = new FileDeletionService();
+        final FileCleaner fileCleaner = new FileCleaner();
+        final DiskFileItemFactory factory = new DiskFileItemFactory(100, null);
+        factory.setDeletionService(deletionService);
+        factory.setFileCleaner(fileCleaner);
+        final ServletFileUpload upload = new ServletFileUpload(factory);
+
+        final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        final Path dump = Files.createTempFile("fileupload", ".jfr");
+        try (AutoCloseable recording = (AutoCloseable) recordingClass.getConstructor().newInstance()) {
+            final Object settings = recordingClass.getMethod("enable", String.class).invoke(recording, "jdk.VirtualThreadPinned");
+            Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class).invoke(settings, Duration.ZERO);
+            recordingClass.getMethod("start").invoke(recording);
+            final ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < 64; i++) {
+                    futures.add(executor.submit(() -> {
+                        for (int j = 0; j < 10; j++) {
+                            for (final FileItem item : upload.parseRequest(new ServletRequestContext(
+                                    new MockHttpServletRequest(request, "multipart/form-data; boundary=---1234")))) {
+                                assertFalse(item.isInMemory());
+                                item.delete();
+                            }
+                            deletionService.flush();
+                        }
+                        return null;
+                    }));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, dump);
+            final List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, dump);
+            assertTrue(events.isEmpty(), events.isEmpty() ? "" : "Pinned " + events.size() + " times, first: " + events.get(0));
+        } finally {
+            deletionService.shutdown();
+            fileCleaner.exitWhenFinished();
+            Files.delete(dump);
+        }
+    }
+
 }
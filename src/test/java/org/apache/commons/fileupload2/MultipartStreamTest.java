@@ -16,12 +16,24 @@
  */
 package org.apache.commons.fileupload2;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
+import org.apache.commons.fileupload2.pub.FileUploadFileCountLimitException;
+import org.apache.commons.fileupload2.pub.FileUploadSizeException;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -31,6 +43,215 @@ public class MultipartStreamTest {
 
     static private final String BOUNDARY_TEXT = "myboundary";
 
+    /**
+     * A request, whose bodies contain partial boundaries, which must not be mistaken for real ones.
+     */
+    private static final String TRICKY_REQUEST =
+            "preamble\r\n--myboundar\r\n" +
+            "--" + BOUNDARY_TEXT + "\r\n" +
+            "Content-Disposition: form-data; name=\"field1\"\r\n" +
+            "\r\n" +
+            "\r\n--myboundar-\r\r\n-\n--\r\n--myboundar\r\n" +
+            "--" + BOUNDARY_TEXT + "\r\n" +
+            "Content-Disposition: form-data; name=\"field2\"\r\n" +
+            "\r\n" +
+            "\r\n" +
+            "--" + BOUNDARY_TEXT + "\r\n" +
+            "Content-Disposition: form-data; name=\"field3\"\r\n" +
+            "\r\n" +
+            "mmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmmm\r\r\n-" +
+            "\r\n--" + BOUNDARY_TEXT + "--\r\n" +
+            "epilogue";
+
+    /**
+     * Reads all part bodies, using the given search algorithm and buffer size.
+     */
+    private List<String> readBodies(final BoundarySearch boundarySearch, final int bufferSize) throws IOException {
+        final byte[] contents = TRICKY_REQUEST.getBytes(StandardCharsets.US_ASCII);
+        final MultipartStream ms = new MultipartStream(new ByteArrayInputStream(contents), BOUNDARY_TEXT.getBytes(StandardCharsets.US_ASCII), bufferSize,
+                new MultipartStream.ProgressNotifier(null, contents.length));
+        ms.setBoundarySearch(boundarySearch);
+        final List<String> bodies = new ArrayList<>();
+        boolean nextPart = ms.skipPreamble();
+        while (nextPart) {
+            bodies.add(ms.readHeaders());
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ms.readBodyData(baos);
+            bodies.add(baos.toString(StandardCharsets.US_ASCII.name()));
+            nextPart = ms.readBoundary();
+        }
+        return bodies;
+    }
+
+    @Test
+    public void testBoundarySearchAlgorithms() throws Exception {
+        final List<String> expected = readBodies(BoundarySearch.KNUTH_MORRIS_PRATT, 4096);
+        assertEquals(6, expected.size());
+        assertEquals("\r\n--myboundar-\r\r\n-\n--\r\n--myboundar", expected.get(1));
+        assertEquals("", expected.get(3));
+        for (final BoundarySearch boundarySearch : BoundarySearch.values()) {
+            for (int bufferSize = 15; bufferSize < 80; bufferSize++) {
+                assertEquals(expected, readBodies(boundarySearch, bufferSize), boundarySearch + ", " + bufferSize);
+            }
+        }
+    }
+
+    /**
+     * A {@link MultipartPushParser.Listener}, which records the events as strings.
+     */
+    private static final class RecordingListener implements MultipartPushParser.Listener {
+
+        private final List<String> events = new ArrayList<>();
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public void completed() {
+            events.add("completed");
+        }
+
+        @Override
+        public void failed(final Throwable cause) {
+            events.add("failed: " + cause.getMessage());
+        }
+
+        @Override
+        public void partData(final ByteBuffer data) {
+            while (data.hasRemaining()) {
+                body.write(data.get());
+            }
+        }
+
+        @Override
+        public void partEnded() throws IOException {
+            events.add(body.toString(StandardCharsets.US_ASCII.name()));
+            body.reset();
+        }
+
+        @Override
+        public void partStarted(final FileItemHeaders headers) {
+            events.add(headers.getHeader("Content-Disposition"));
+        }
+
+    }
+
+    /**
+     * Feeds the request to a {@link MultipartPushParser} in chunks of every size, and compares the events with the results of {@link MultipartStream}.
+     */
+    @Test
+    public void testPushParser() throws Exception {
+        final List<String> bodies = readBodies(BoundarySearch.getDefault(), 4096);
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < bodies.size(); i += 2) {
+            expected.add(bodies.get(i).substring("Content-Disposition: ".length(), bodies.get(i).length() - 4));
+            expected.add(bodies.get(i + 1));
+        }
+        expected.add("completed");
+        final byte[] contents = TRICKY_REQUEST.getBytes(StandardCharsets.US_ASCII);
+        for (int chunkSize = 1; chunkSize <= contents.length; chunkSize++) {
+            final RecordingListener listener = new RecordingListener();
+            final MultipartPushParser parser = new MultipartPushParser(BOUNDARY_TEXT.getBytes(StandardCharsets.US_ASCII), listener);
+            for (int offset = 0; offset < contents.length; offset += chunkSize) {
+                parser.feed(ByteBuffer.wrap(contents, offset, Math.min(chunkSize, contents.length - offset)));
+            }
+            parser.finish();
+            assertEquals(expected, listener.events, "chunkSize " + chunkSize);
+        }
+
+        final RecordingListener listener = new RecordingListener();
+        final MultipartPushParser parser = new MultipartPushParser(BOUNDARY_TEXT.getBytes(StandardCharsets.US_ASCII), listener);
+        parser.setPartSizeMax(10);
+        assertThrows(FileUploadSizeException.class, () -> parser.feed(ByteBuffer.wrap(contents)));
+        assertTrue(parser.isFailed());
+        assertEquals("failed: The part exceeds its maximum permitted size of 10 bytes.", listener.events.get(listener.events.size() - 1));
+        assertThrows(IllegalStateException.class, parser::finish);
+
+        final RecordingListener counted = new RecordingListener();
+        final MultipartPushParser countedParser = new MultipartPushParser(BOUNDARY_TEXT.getBytes(StandardCharsets.US_ASCII), counted,
+                BoundarySearch.KNUTH_MORRIS_PRATT);
+        countedParser.setPartCountMax(1);
+        assertThrows(FileUploadFileCountLimitException.class, () -> countedParser.feed(ByteBuffer.wrap(contents)));
+        assertEquals(expected.subList(0, 2), counted.events.subList(0, 2));
+        assertEquals("failed: The request has more than the maximum permitted number of 1 parts.", counted.events.get(counted.events.size() - 1));
+
+        final RecordingListener truncated = new RecordingListener();
+        final MultipartPushParser truncatedParser = new MultipartPushParser(BOUNDARY_TEXT.getBytes(StandardCharsets.US_ASCII), truncated);
+        truncatedParser.feed(ByteBuffer.wrap(contents, 0, contents.length / 2));
+        assertThrows(MultipartStream.MalformedStreamException.class, truncatedParser::finish);
+        assertEquals("failed: Stream ended unexpectedly", truncated.events.get(truncated.events.size() - 1));
+    }
+
+    /**
+     * Tests, that transferring the bodies to a channel yields the same bytes as {@link MultipartStream#readBodyData(java.io.OutputStream)}.
+     */
+    @Test
+    public void testTransferToChannel() throws Exception {
+        final List<String> expected = readBodies(BoundarySearch.getDefault(), 4096);
+        final byte[] contents = TRICKY_REQUEST.getBytes(StandardCharsets.US_ASCII);
+        for (int bufferSize = 15; bufferSize < 80; bufferSize++) {
+            final MultipartStream ms = new MultipartStream(new ByteArrayInputStream(contents), BOUNDARY_TEXT.getBytes(StandardCharsets.US_ASCII), bufferSize,
+                    new MultipartStream.ProgressNotifier(null, contents.length));
+            final List<String> bodies = new ArrayList<>();
+            boolean nextPart = ms.skipPreamble();
+            while (nextPart) {
+                bodies.add(ms.readHeaders());
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (MultipartStream.ItemInputStream in = ms.newInputStream()) {
+                    final long transferred = in.transferTo(Channels.newChannel(baos));
+                    assertEquals(baos.size(), transferred);
+                    assertEquals(transferred, in.getBytesRead());
+                }
+                bodies.add(baos.toString(StandardCharsets.US_ASCII.name()));
+                nextPart = ms.readBoundary();
+            }
+            assertEquals(expected, bodies, "bufferSize " + bufferSize);
+        }
+    }
+
+    /**
+     * Compares all search algorithms against Knuth-Morris-Pratt on random data, which is built from the same few bytes as the boundary, so that
+     * partial matches are frequent.
+     */
+    @Test
+    public void testBoundarySearchDifferential() {
+        final Random random = new Random(1234);
+        final byte[] alphabet = {MultipartStream.CR, MultipartStream.LF, MultipartStream.DASH, 'a', 'b'};
+        final BoundarySearch.Finder expected = BoundarySearch.KNUTH_MORRIS_PRATT.newFinder();
+        for (final BoundarySearch boundarySearch : BoundarySearch.values()) {
+            final BoundarySearch.Finder actual = boundarySearch.newFinder();
+            for (int round = 0; round < 2000; round++) {
+                final byte[] boundary = new byte[2 + random.nextInt(12)];
+                for (int i = 0; i < boundary.length; i++) {
+                    boundary[i] = alphabet[random.nextInt(i == 0 ? 3 : alphabet.length)];
+                }
+                // Like skipPreamble(), use only a prefix of the boundary now and then.
+                final int length = random.nextBoolean() ? boundary.length : 2 + random.nextInt(boundary.length - 1);
+                expected.compile(boundary, length);
+                actual.compile(boundary, length);
+                final byte[] buffer = new byte[random.nextInt(100)];
+                for (int i = 0; i < buffer.length; i++) {
+                    buffer[i] = alphabet[random.nextInt(alphabet.length)];
+                }
+                for (int from = 0; from <= buffer.length; from++) {
+                    assertEquals(expected.find(buffer, from, buffer.length), actual.find(buffer, from, buffer.length), boundarySearch + ", round " + round);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHeaderPartSizeMax() throws Exception {
+        final StringBuilder sb = new StringBuilder("--" + BOUNDARY_TEXT + "\r\nX-Padding: ");
+        while (sb.length() <= MultipartStream.HEADER_PART_SIZE_MAX + BOUNDARY_TEXT.length()) {
+            sb.append('x');
+        }
+        final byte[] contents = sb.append("\r\n\r\nbody").toString().getBytes(StandardCharsets.US_ASCII);
+        final MultipartStream ms = new MultipartStream(new ByteArrayInputStream(contents), BOUNDARY_TEXT.getBytes(StandardCharsets.US_ASCII), 100,
+                new MultipartStream.ProgressNotifier(null, contents.length));
+        assertTrue(ms.skipPreamble());
+        assertThrows(MultipartStream.MalformedStreamException.class, ms::readHeaders);
+    }
+
     @Test
     public void testSmallBuffer() {
         final String strData = "foobar";
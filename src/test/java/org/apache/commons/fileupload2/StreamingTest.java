@@ -16,25 +16,47 @@
  */
 package org.apache.commons.fileupload2;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.apache.commons.fileupload2.disk.DiskFileItem;
 import org.apache.commons.fileupload2.disk.DiskFileItemFactory;
+import org.apache.commons.fileupload2.reactive.Flow;
+import org.apache.commons.fileupload2.reactive.MultipartPublisher;
 import org.apache.commons.fileupload2.servlet.ServletFileUpload;
 import org.apache.commons.fileupload2.servlet.ServletRequestContext;
+import org.apache.commons.fileupload2.util.BufferPool;
+import org.apache.commons.fileupload2.util.Digester;
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -42,18 +64,18 @@ import org.junit.jupiter.api.Test;
  */
 public class StreamingTest {
 
-    private String getFooter() {
+    static String getFooter() {
         return "-----1234--\r\n";
     }
 
-    private String getHeader(final String value) {
+    static String getHeader(final String value) {
         return "-----1234\r\n"
             + "Content-Disposition: form-data; name=\"" + value + "\"\r\n"
             + "\r\n";
 
     }
 
-    private byte[] newRequest() throws IOException {
+    static byte[] newRequest() throws IOException {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try (final OutputStreamWriter osw = new OutputStreamWriter(baos, StandardCharsets.US_ASCII)) {
             int add = 16;
@@ -91,28 +113,26 @@ public class StreamingTest {
 
     private List<FileItem> parseUpload(final InputStream inputStream, final int length)
             throws FileUploadException {
-        final String contentType = "multipart/form-data; boundary=---1234";
-
-        final AbstractFileUpload upload = new ServletFileUpload();
-        upload.setFileItemFactory(new DiskFileItemFactory());
+        final AbstractFileUpload upload = new ServletFileUpload(new DiskFileItemFactory());
         final HttpServletRequest request = new MockHttpServletRequest(inputStream,
-                length, contentType);
+                length, Constants.CONTENT_TYPE);
 
         return upload.parseRequest(new ServletRequestContext(request));
     }
 
     private FileItemIterator parseUpload(final int length, final InputStream inputStream)
             throws FileUploadException, IOException {
-        final String contentType = "multipart/form-data; boundary=---1234";
-
-        final AbstractFileUpload upload = new ServletFileUpload();
-        upload.setFileItemFactory(new DiskFileItemFactory());
+        final AbstractFileUpload upload = new ServletFileUpload(new DiskFileItemFactory());
         final HttpServletRequest request = new MockHttpServletRequest(inputStream,
-                length, contentType);
+                length, Constants.CONTENT_TYPE);
 
         return upload.getItemIterator(new ServletRequestContext(request));
     }
 
+    private static RequestContext newRequestContext(final byte[] request) {
+        return new ServletRequestContext(new MockHttpServletRequest(request, Constants.CONTENT_TYPE));
+    }
+
     /**
      * Tests a file upload with varying file sizes.
      */
@@ -139,6 +159,388 @@ public class StreamingTest {
         assertTrue(!fileIter.hasNext());
     }
 
+    /**
+     * Tests, that the buffers are borrowed from, and returned to the
+     * {@link BufferPool}, also if parsing fails.
+     */
+    @Test
+    public void testBufferPool()
+            throws IOException, FileUploadException {
+        final byte[] request = newRequest();
+        final BufferPool pool = new BufferPool();
+        final AbstractFileUpload upload = new ServletFileUpload(new DiskFileItemFactory());
+        upload.setBufferPool(pool);
+        final List<FileItem> expected = parseUpload(request);
+        for (int i = 0; i < 3; i++) {
+            final List<FileItem> fileItems = upload.parseRequest(newRequestContext(request));
+            assertEquals(expected.size(), fileItems.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.get(j).getFieldName(), fileItems.get(j).getFieldName());
+                assertArrayEquals(expected.get(j).get(), fileItems.get(j).get());
+            }
+        }
+        // The MultipartStream buffer is allocated by the first request only.
+        // The copy buffer isn't needed, because the items are transferred directly.
+        assertEquals(1, pool.getMissCount());
+        assertEquals(2, pool.getHitCount());
+
+        final byte[] truncated = Arrays.copyOf(request, request.length / 2);
+        assertThrows(FileUploadException.class, () -> upload.parseRequest(newRequestContext(truncated)));
+        assertEquals(1, pool.getMissCount());
+        upload.parseRequest(newRequestContext(request));
+        assertEquals(1, pool.getMissCount());
+    }
+
+    /**
+     * Tests a file upload with configured, and adaptive buffer sizes.
+     */
+    @Test
+    public void testBufferSize()
+            throws IOException, FileUploadException {
+        final byte[] request = newRequest();
+        final List<FileItem> expected = parseUpload(request);
+        final AbstractFileUpload upload = new ServletFileUpload(new DiskFileItemFactory());
+        assertEquals(MultipartStream.DEFAULT_BUFSIZE, upload.getBufferSize(request.length));
+
+        assertThrows(IllegalArgumentException.class, () -> upload.setBufferSize(0));
+        assertThrows(IllegalArgumentException.class, () -> upload.setBufferSize(AbstractFileUpload.MIN_BUFFER_SIZE - 1));
+        assertThrows(IllegalArgumentException.class, () -> upload.setBufferSizeMax(0));
+        assertThrows(IllegalArgumentException.class, () -> upload.setBufferSizeMax(-2));
+        assertEquals(MultipartStream.DEFAULT_BUFSIZE, upload.getBufferSize());
+        assertEquals(-1, upload.getBufferSizeMax());
+        upload.setBufferSize(1024);
+        upload.setBufferSizeMax(64 * 1024);
+        assertEquals(1024, upload.getBufferSize(-1));
+        assertEquals(1024, upload.getBufferSize(1000));
+        assertEquals(2048, upload.getBufferSize(1025));
+        assertEquals(64 * 1024, upload.getBufferSize(Long.MAX_VALUE));
+        for (final int bufferSizeMax : new int[] {-1, 4096, 64 * 1024}) {
+            upload.setBufferSizeMax(bufferSizeMax);
+            final List<FileItem> fileItems = upload.parseRequest(newRequestContext(request));
+            assertEquals(expected.size(), fileItems.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertArrayEquals(expected.get(j).get(), fileItems.get(j).get());
+            }
+        }
+    }
+
+    /**
+     * Tests reading the request from {@link RequestContext#getChannel()}.
+     */
+    @Test
+    public void testChannel()
+            throws IOException, FileUploadException {
+        final byte[] request = newRequest();
+        final List<FileItem> expected = parseUpload(request);
+        final AbstractFileUpload upload = new ServletFileUpload(new DiskFileItemFactory());
+        final RequestContext ctx = new ServletRequestContext(new MockHttpServletRequest(request, Constants.CONTENT_TYPE)) {
+            @Override
+            public InputStream getInputStream() {
+                throw new IllegalStateException("The channel should be used");
+            }
+
+            @Override
+            public ReadableByteChannel getChannel() {
+                return Channels.newChannel(new ByteArrayInputStream(request));
+            }
+        };
+        final List<FileItem> fileItems = upload.parseRequest(ctx);
+        assertEquals(expected.size(), fileItems.size());
+        for (int j = 0; j < expected.size(); j++) {
+            assertEquals(expected.get(j).getFieldName(), fileItems.get(j).getFieldName());
+            assertArrayEquals(expected.get(j).get(), fileItems.get(j).get());
+        }
+
+        upload.setSizeMax(request.length - 1);
+        assertThrows(FileUploadException.class, () -> upload.parseRequest(new ServletRequestContext(
+                new MockHttpServletRequest(new ByteArrayInputStream(request), -1, "multipart/form-data; boundary=---1234")) {
+            @Override
+            public ReadableByteChannel getChannel() {
+                return Channels.newChannel(new ByteArrayInputStream(request));
+            }
+        }));
+    }
+
+    /**
+     * Tests computing digests with a {@link Digester}, while the streaming API is used.
+     */
+    @Test
+    public void testDigester()
+            throws Exception {
+        final byte[] request = newRequest();
+        final List<FileItem> expected = parseUpload(request);
+        final FileItemIterator iter = parseUpload(request.length, new ByteArrayInputStream(request));
+        for (int j = 0; iter.hasNext(); j++) {
+            final Digester digester = new Digester("SHA-256");
+            try (InputStream in = digester.wrap(iter.next().openStream())) {
+                IOUtils.consume(in);
+            }
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expected.get(j).get()), digester.getDigest("SHA-256"));
+        }
+    }
+
+    /**
+     * Tests {@link FileItemIterator#skipToField(String)}.
+     */
+    @Test
+    public void testSkipToField()
+            throws IOException, FileUploadException {
+        final byte[] request = newRequest();
+        final List<FileItem> expected = parseUpload(request);
+        assertSkipToField(expected, parseUpload(request.length, new ByteArrayInputStream(request)));
+
+        // The default implementation, which iterates over the items.
+        final FileItemIterator delegate = parseUpload(request.length, new ByteArrayInputStream(request));
+        assertSkipToField(expected, new FileItemIterator() {
+            @Override
+            public List<FileItem> getFileItems() throws FileUploadException, IOException {
+                return delegate.getFileItems();
+            }
+
+            @Override
+            public long getFileSizeMax() {
+                return delegate.getFileSizeMax();
+            }
+
+            @Override
+            public long getSizeMax() {
+                return delegate.getSizeMax();
+            }
+
+            @Override
+            public boolean hasNext() throws FileUploadException, IOException {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public FileItemStream next() throws FileUploadException, IOException {
+                return delegate.next();
+            }
+
+            @Override
+            public void setFileSizeMax(final long fileSizeMax) {
+                delegate.setFileSizeMax(fileSizeMax);
+            }
+
+            @Override
+            public void setSizeMax(final long sizeMax) {
+                delegate.setSizeMax(sizeMax);
+            }
+        });
+    }
+
+    private void assertSkipToField(final List<FileItem> expected, final FileItemIterator iter)
+            throws IOException, FileUploadException {
+        assertEquals("field0", iter.next().getFieldName());
+        for (final int index : new int[] {5, 6, 100}) {
+            final FileItemStream item = iter.skipToField("field" + index);
+            assertEquals("field" + index, item.getFieldName());
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (InputStream in = item.openStream()) {
+                IOUtils.copy(in, baos);
+            }
+            assertArrayEquals(expected.get(index).get(), baos.toByteArray());
+        }
+        assertTrue(iter.hasNext());
+        assertEquals("field101", iter.skipToField("field101").getFieldName());
+        assertNull(iter.skipToField("field0"));
+        assertFalse(iter.hasNext());
+    }
+
+    /**
+     * Tests {@link MultipartPublisher}, requesting one part, and one chunk at a time. The body of every third part is cancelled.
+     */
+    @Test
+    public void testPublisher()
+            throws IOException, FileUploadException {
+        final byte[] request = newRequest();
+        final List<FileItem> expected = parseUpload(request);
+        final AbstractFileUpload upload = new ServletFileUpload(new DiskFileItemFactory());
+        final MultipartPublisher publisher = new MultipartPublisher(upload,
+                newRequestContext(request), Runnable::run, 100);
+        final List<String> fieldNames = new ArrayList<>();
+        final List<byte[]> bodies = new ArrayList<>();
+        final boolean[] completed = new boolean[1];
+        publisher.subscribe(new Flow.Subscriber<MultipartPublisher.Part>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onComplete() {
+                completed[0] = true;
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                fail("Unexpected error: " + throwable);
+            }
+
+            @Override
+            public void onNext(final MultipartPublisher.Part part) {
+                final int index = fieldNames.size();
+                fieldNames.add(part.getFieldName());
+                part.getBody().subscribe(new Flow.Subscriber<ByteBuffer>() {
+                    private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    private Flow.Subscription bodySubscription;
+
+                    @Override
+                    public void onComplete() {
+                        bodies.add(baos.toByteArray());
+                        subscription.request(1);
+                    }
+
+                    @Override
+                    public void onError(final Throwable throwable) {
+                        fail("Unexpected error: " + throwable);
+                    }
+
+                    @Override
+                    public void onNext(final ByteBuffer chunk) {
+                        assertTrue(chunk.remaining() <= 100);
+                        baos.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                        bodySubscription.request(1);
+                    }
+
+                    @Override
+                    public void onSubscribe(final Flow.Subscription s) {
+                        bodySubscription = s;
+                        if (index % 3 == 2) {
+                            bodies.add(null);
+                            s.cancel();
+                            subscription.request(1);
+                        } else {
+                            s.request(1);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onSubscribe(final Flow.Subscription s) {
+                subscription = s;
+                s.request(1);
+            }
+        });
+        assertTrue(completed[0]);
+        assertEquals(expected.size(), fieldNames.size());
+        assertEquals(expected.size(), bodies.size());
+        for (int j = 0; j < expected.size(); j++) {
+            assertEquals(expected.get(j).getFieldName(), fieldNames.get(j));
+            if (j % 3 != 2) {
+                assertArrayEquals(expected.get(j).get(), bodies.get(j));
+            }
+        }
+
+        // A second subscriber is rejected.
+        final Throwable[] error = new Throwable[1];
+        publisher.subscribe(new Flow.Subscriber<MultipartPublisher.Part>() {
+            @Override
+            public void onComplete() {
+                fail("Expected an error");
+            }
+
+            @Override
+            public void onError(final Throwable throwable) {
+                error[0] = throwable;
+            }
+
+            @Override
+            public void onNext(final MultipartPublisher.Part part) {
+                fail("Expected an error");
+            }
+
+            @Override
+            public void onSubscribe(final Flow.Subscription s) {
+                s.request(1);
+            }
+        });
+        assertTrue(error[0] instanceof IllegalStateException);
+    }
+
+    /**
+     * Tests the pipelined mode of {@link AbstractFileUpload#parseRequest(RequestContext)}.
+     */
+    @Test
+    public void testPipelinedWrite()
+            throws Exception {
+        final byte[] request = newRequest();
+        final List<FileItem> expected = parseUpload(request);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AbstractFileUpload upload = new ServletFileUpload(new DiskFileItemFactory(1000, null));
+            upload.setWriteExecutor(executor);
+            upload.setWriteQueueCapacity(1);
+            final List<FileItem> fileItems = upload.parseRequest(newRequestContext(request));
+            assertEquals(expected.size(), fileItems.size());
+            for (int j = 0; j < expected.size(); j++) {
+                final FileItem fileItem = fileItems.get(j);
+                assertEquals(expected.get(j).getFieldName(), fileItem.getFieldName());
+                assertArrayEquals(expected.get(j).get(), fileItem.get());
+                assertEquals("form-data; name=\"" + fileItem.getFieldName() + "\"", fileItem.getHeaders().getHeader("Content-Disposition"));
+                fileItem.delete();
+            }
+
+            // Writing fails, because the repository is a file.
+            final File repository = File.createTempFile("fileupload", ".tmp");
+            try {
+                upload.setFileItemFactory(new DiskFileItemFactory(1000, repository));
+                assertThrows(FileUploadException.class, () -> upload.parseRequest(newRequestContext(request)));
+            } finally {
+                repository.delete();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Tests {@link AbstractFileUpload#parseRequest(RequestContext, java.util.concurrent.Executor, FileItemProcessor)},
+     * with, and without pipelined writing.
+     */
+    @Test
+    public void testProcessItems()
+            throws Exception {
+        final byte[] request = newRequest();
+        final List<FileItem> expected = parseUpload(request);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (final boolean pipelined : new boolean[] {false, true}) {
+                final AbstractFileUpload upload = new ServletFileUpload(new DiskFileItemFactory(0, null));
+                if (pipelined) {
+                    upload.setWriteExecutor(executor);
+                }
+                final CompletableFuture<List<String>> future = upload.parseRequest(newRequestContext(request), executor,
+                        fileItem -> fileItem.getFieldName() + ":" + Arrays.hashCode(fileItem.get()));
+                final List<String> results = future.get();
+                assertEquals(expected.size(), results.size());
+                for (int j = 0; j < expected.size(); j++) {
+                    assertEquals(expected.get(j).getFieldName() + ":" + Arrays.hashCode(expected.get(j).get()), results.get(j));
+                }
+
+                // If processing fails, then all items are deleted.
+                final ConcurrentLinkedQueue<File> files = new ConcurrentLinkedQueue<>();
+                final CompletableFuture<List<Object>> failed = upload.parseRequest(newRequestContext(request), executor, fileItem -> {
+                            final File file = ((DiskFileItem) fileItem).getStoreLocation();
+                            if (file != null) {
+                                assertTrue(file.exists());
+                                files.add(file);
+                            }
+                            if ("field3".equals(fileItem.getFieldName())) {
+                                throw new IOException("Processing failed");
+                            }
+                            return null;
+                        });
+                final CompletionException e = assertThrows(CompletionException.class, failed::join);
+                assertEquals("Processing failed", e.getCause().getMessage());
+                assertEquals(expected.size() - 1, files.size());
+                for (final File file : files) {
+                    assertFalse(file.exists());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     /**
      * Test for FILEUPLOAD-135
      */
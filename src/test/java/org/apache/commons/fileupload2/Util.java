@@ -54,6 +54,10 @@ public class Util {
         return upload.parseRequest(new ServletRequestContext(request));
     }
 
+    public static List<FileItem> parseUpload(final FileItemFactory factory, final byte[] bytes) throws FileUploadException {
+        return parseUpload(new ServletFileUpload(factory), bytes);
+    }
+
     public static List<FileItem> parseUpload(final FileUpload upload, final String content)
         throws FileUploadException {
         final byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
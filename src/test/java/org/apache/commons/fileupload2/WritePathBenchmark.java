@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.fileupload2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.apache.commons.fileupload2.disk.DiskFileItem;
+import org.apache.commons.fileupload2.disk.DiskFileItemFactory;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A micro-benchmark, which compares the ways of moving an uploaded item from its temporary file to its destination:
+ * An atomic rename, a copy by {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, the former
+ * {@link FileUtils#moveFile(File, File)}, and {@link DiskFileItem#write(Path, java.nio.file.CopyOption...)}, which chooses
+ * between the first two. It isn't run as part of the tests. Run it with
+ * <pre>
+ * java -cp ... org.apache.commons.fileupload2.WritePathBenchmark [targetDirectory [itemSize [itemCount]]]
+ * </pre>
+ * {@link FileUtils#moveFile(File, File)} renames the file, too, if it can. A target directory on another file system than the temporary directory
+ * measures the copying fallbacks.
+ */
+public final class WritePathBenchmark {
+
+    /**
+     * Moves a file to its destination.
+     */
+    private interface Strategy {
+
+        /**
+         * Moves the given item to the given path.
+         *
+         * @param item   The item, which holds a temporary file.
+         * @param target The destination.
+         * @throws IOException Moving the file has failed.
+         */
+        void write(DiskFileItem item, Path target) throws IOException;
+    }
+
+    /**
+     * Number of rounds, which are run before the measurement, so that the code is compiled.
+     */
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args The target directory, the item size in bytes, and the number of items, all optional.
+     * @throws IOException Writing the files has failed.
+     */
+    public static void main(final String[] args) throws IOException {
+        final Path targetDir = args.length > 0 ? Files.createDirectories(new File(args[0]).toPath()) : Files.createTempDirectory("fileupload-benchmark");
+        final int itemSize = args.length > 1 ? Integer.parseInt(args[1]) : 16 * 1024 * 1024;
+        final int itemCount = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        final byte[] data = new byte[itemSize];
+        new Random(0).nextBytes(data);
+        final DiskFileItemFactory factory = new DiskFileItemFactory(0, null);
+        System.out.printf("Moving %d items of %d bytes from %s to %s%n", itemCount, itemSize, FileUtils.getTempDirectory(), targetDir);
+        run("rename", factory, data, itemCount, targetDir, (item, target) ->
+                Files.move(item.getStoreLocation().toPath(), target, StandardCopyOption.ATOMIC_MOVE));
+        run("transferTo", factory, data, itemCount, targetDir, WritePathBenchmark::transfer);
+        run("FileUtils.moveFile", factory, data, itemCount, targetDir, (item, target) ->
+                FileUtils.moveFile(item.getStoreLocation(), target.toFile()));
+        run("DiskFileItem.write(Path)", factory, data, itemCount, targetDir, (item, target) -> item.write(target));
+    }
+
+    /**
+     * Creates items on disk.
+     *
+     * @param factory   Creates the items.
+     * @param data      The contents of every item.
+     * @param itemCount The number of items.
+     * @return The items.
+     * @throws IOException Writing the items has failed.
+     */
+    private static DiskFileItem[] newItems(final DiskFileItemFactory factory, final byte[] data, final int itemCount) throws IOException {
+        final DiskFileItem[] items = new DiskFileItem[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            items[i] = (DiskFileItem) factory.createItem("field" + i, "application/octet-stream", false, "file" + i);
+            try (OutputStream out = items[i].getOutputStream()) {
+                out.write(data);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Measures a strategy, and prints its throughput.
+     *
+     * @param name      The strategy's name.
+     * @param factory   Creates the items.
+     * @param data      The contents of every item.
+     * @param itemCount The number of items.
+     * @param targetDir The directory, which receives the files.
+     * @param strategy  The strategy.
+     * @throws IOException Moving the files has failed.
+     */
+    private static void run(final String name, final DiskFileItemFactory factory, final byte[] data, final int itemCount, final Path targetDir,
+            final Strategy strategy) throws IOException {
+        long nanos = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            final DiskFileItem[] items = newItems(factory, data, itemCount);
+            final Path[] targets = new Path[itemCount];
+            for (int i = 0; i < itemCount; i++) {
+                targets[i] = targetDir.resolve(name + "-" + i);
+            }
+            final long start = System.nanoTime();
+            try {
+                for (int i = 0; i < itemCount; i++) {
+                    strategy.write(items[i], targets[i]);
+                }
+            } catch (final AtomicMoveNotSupportedException e) {
+                System.out.printf("%-26s not supported: %s%n", name, e.getMessage());
+                return;
+            } finally {
+                nanos = System.nanoTime() - start;
+                for (int i = 0; i < itemCount; i++) {
+                    Files.deleteIfExists(targets[i]);
+                    items[i].delete();
+                }
+            }
+        }
+        final double megabytes = (double) data.length * itemCount / (1024 * 1024);
+        System.out.printf("%-26s %10.3f ms %12.1f MiB/s%n", name, nanos / 1e6, megabytes / (nanos / 1e9));
+    }
+
+    /**
+     * Copies the temporary file by {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, and deletes it, as
+     * {@link DiskFileItem#write(Path, java.nio.file.CopyOption...)} does, if the file can't be renamed.
+     *
+     * @param item   The item, which holds a temporary file.
+     * @param target The destination.
+     * @throws IOException Copying the file has failed.
+     */
+    private static void transfer(final DiskFileItem item, final Path target) throws IOException {
+        final Path source = item.getStoreLocation().toPath();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            long position = 0;
+            final long count = in.size();
+            while (position < count) {
+                final long transferred = in.transferTo(position, count - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("No progress at " + position + " of " + count + " bytes");
+                }
+                position += transferred;
+            }
+        }
+        Files.delete(source);
+    }
+
+    /**
+     * Not instantiated.
+     */
+    private WritePathBenchmark() {
+    }
+}
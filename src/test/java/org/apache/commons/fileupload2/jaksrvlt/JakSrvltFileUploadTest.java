@@ -19,16 +19,22 @@ package org.apache.commons.fileupload2.jaksrvlt;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.fileupload2.Constants;
 import org.apache.commons.fileupload2.FileItem;
+import org.apache.commons.fileupload2.FileItemHeaders;
 import org.apache.commons.fileupload2.FileUploadTest;
+import org.apache.commons.fileupload2.MultipartPushParser;
 import org.apache.commons.fileupload2.disk.DiskFileItemFactory;
 import org.junit.jupiter.api.Test;
 
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
 import jakarta.servlet.http.HttpServletRequest;
 
 /**
@@ -39,6 +45,85 @@ import jakarta.servlet.http.HttpServletRequest;
  */
 public class JakSrvltFileUploadTest {
 
+    /**
+     * Tests, that {@link JakSrvltReadListener} feeds the data, which is
+     * available without blocking, to the parser.
+     */
+    @Test
+    public void readListener()
+        throws Exception {
+        final String text = "-----1234\r\n" +
+                "Content-Disposition: form-data; name=\"field\"\r\n" +
+                "\r\n" +
+                "value\r\n" +
+                "-----1234--\r\n";
+        final ByteArrayInputStream bytes = new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII));
+        final int[] readyBytes = new int[1];
+        final ServletInputStream inputStream = new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return bytes.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return readyBytes[0] > 0 || isFinished();
+            }
+
+            @Override
+            public int read() {
+                readyBytes[0]--;
+                return bytes.read();
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) {
+                final int res = bytes.read(b, off, Math.min(len, Math.max(1, readyBytes[0])));
+                readyBytes[0] -= Math.max(res, 0);
+                return res;
+            }
+
+            @Override
+            public void setReadListener(final ReadListener readListener) {
+                throw new IllegalStateException("Not implemented");
+            }
+        };
+        final StringBuilder events = new StringBuilder();
+        final MultipartPushParser parser = new MultipartPushParser("---1234".getBytes(StandardCharsets.US_ASCII), new MultipartPushParser.Listener() {
+            @Override
+            public void completed() {
+                events.append("completed");
+            }
+
+            @Override
+            public void failed(final Throwable cause) {
+                events.append("failed");
+            }
+
+            @Override
+            public void partData(final ByteBuffer data) {
+                events.append(StandardCharsets.US_ASCII.decode(data));
+            }
+
+            @Override
+            public void partEnded() {
+                events.append(']');
+            }
+
+            @Override
+            public void partStarted(final FileItemHeaders headers) {
+                events.append(headers.getHeader("content-disposition")).append('[');
+            }
+        });
+        final JakSrvltReadListener readListener = new JakSrvltReadListener(inputStream, parser, 16);
+        while (!inputStream.isFinished()) {
+            readyBytes[0] = 7;
+            readListener.onDataAvailable();
+        }
+        readListener.onAllDataRead();
+        assertEquals("form-data; name=\"field\"[value]completed", events.toString());
+    }
+
     @Test
     public void parseImpliedUtf8()
         throws Exception {